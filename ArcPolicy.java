@@ -0,0 +1,145 @@
+import java.util.*;
+
+// Adaptive Replacement Cache (Megiddo & Modha). T1 holds blocks referenced
+// once recently and T2 blocks referenced at least twice; B1 and B2 remember
+// the IDs of blocks recently evicted from each. A miss that hits a ghost in
+// B1 grows the target size p of T1, one in B2 shrinks it, so the split
+// between recency and frequency follows the workload.
+//
+// The cache picks a victim before it tells the policy which block is
+// coming in, so the rule that breaks the |T1| == p tie in favour of a
+// B2 hit is left out.
+//
+// A prefetched block is not a reference yet. It goes in at the head of T1,
+// so unread prefetches leave oldest first, and the first read of it counts
+// as its first reference, not its second, so read-ahead during a scan does
+// not flood T2. That read leaves it where it is in T1.
+
+public class ArcPolicy implements EvictionPolicy {
+
+    // resident lists
+    private static final int T1 = 0;
+    private static final int T2 = 1;
+
+    // ghost lists
+    private static final int B1 = 0;
+    private static final int B2 = 1;
+    private static final int FREE = 2;
+
+    private int frames;          // c in the paper
+    private int p;               // target size of T1
+
+    private FrameLists resident;
+    private FrameLists ghosts;
+    private int[] ghostBlock;    // block ID remembered in each ghost slot
+    private BlockIndex ghostOf;  // block ID -> ghost slot
+    private boolean[] prefetched; // frame was prefetched and not read yet
+
+    public ArcPolicy(int frames) {
+        this.frames = frames;
+        resident = new FrameLists(frames, 2);
+        ghosts = new FrameLists(frames, 3);
+        ghostBlock = new int[frames];
+        ghostOf = new BlockIndex(frames);
+        prefetched = new boolean[frames];
+        clear();
+    }
+
+    public void inserted(int frame, int blockId, boolean referenced) {
+        int ghost = ghostOf.get(blockId);
+        if (ghost != BlockIndex.NONE && referenced) {
+            int b1 = ghosts.size(B1);
+            int b2 = ghosts.size(B2);
+            // adapt: a B1 hit means T1 was too small, a B2 hit that T2 was
+            if (ghosts.listOf(ghost) == B1) {
+                p = Math.min(frames, p + Math.max(1, b2 / b1));
+            } else {
+                p = Math.max(0, p - Math.max(1, b1 / b2));
+            }
+            forget(ghost);
+            resident.pushHead(T2, frame);
+        } else if (referenced) {
+            resident.pushHead(T1, frame);
+        } else {
+            // only prefetched, it ages in T1 like a block read once
+            resident.pushHead(T1, frame);
+            prefetched[frame] = true;
+        }
+    }
+
+    public void accessed(int frame) {
+        if (prefetched[frame]) {
+            // the first time it is asked for. It keeps its place in T1,
+            // which it took when it was prefetched
+            prefetched[frame] = false;
+        } else {
+            resident.pushHead(T2, frame);
+        }
+    }
+
+    public void removed(int frame, int blockId) {
+        int from = resident.listOf(frame);
+        resident.remove(frame);
+        if (prefetched[frame]) {
+            // never referenced, so not worth a ghost either
+            prefetched[frame] = false;
+        } else if (from == T1) {
+            remember(B1, blockId);
+        } else if (from == T2) {
+            remember(B2, blockId);
+        }
+    }
+
+    public int victim() {
+        int t1 = resident.size(T1);
+        if (t1 > 0 && (t1 > p || resident.size(T2) == 0)) {
+            return resident.tail(T1);
+        }
+        return resident.tail(T2);
+    }
+
+    public int victimHint() {
+        return victim();
+    }
+
+    public void clear() {
+        p = 0;
+        resident.clear();
+        Arrays.fill(prefetched, false);
+        ghosts.clear();
+        ghostOf.clear();
+        for (int i = 0; i < ghostBlock.length; i++) {
+            ghosts.pushHead(FREE, i);
+        }
+    }
+
+    public String name() {
+        return "arc";
+    }
+
+    // add blockId to ghost list l, keeping |T1| + |B1| <= c
+    private void remember(int l, int blockId) {
+        int ghost = ghostOf.get(blockId);
+        if (ghost != BlockIndex.NONE) {
+            forget(ghost);
+        }
+        if (l == B1) {
+            while (ghosts.size(B1) > 0 && resident.size(T1) + ghosts.size(B1) >= frames) {
+                forget(ghosts.tail(B1));
+            }
+        }
+        if (ghosts.size(FREE) == 0) {
+            // the directory is full: drop the oldest ghost of the longer list
+            forget(ghosts.tail(ghosts.size(B1) > ghosts.size(B2) ? B1 : B2));
+        }
+        ghost = ghosts.head(FREE);
+        ghostBlock[ghost] = blockId;
+        ghostOf.put(blockId, ghost);
+        ghosts.pushHead(l, ghost);
+    }
+
+    private void forget(int ghost) {
+        ghostOf.remove(ghostBlock[ghost]);
+        ghosts.pushHead(FREE, ghost);
+    }
+}
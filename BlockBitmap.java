@@ -0,0 +1,180 @@
+import java.util.*;
+
+// The allocation bitmap of a bitmap-formatted disk: one bit per disk block,
+// set while the block is in use. The bitmap blocks are read once and kept
+// in memory, so allocating or freeing a block is a bit operation; changed
+// bitmap blocks go back to disk on sync. A lazily formatted bitmap only
+// has its first bitmap blocks on disk; the ones after them stand for
+// all-free blocks and are written the first time one of them changes.
+
+class BlockBitmap {
+
+    // # blocks one bitmap block keeps track of
+    public static final int BITS = Disk.blockSize * 8;
+
+    private byte[][] map;        // the bitmap blocks
+    private boolean[] dirty;     // bitmap block changed since last sync
+    private int start;           // the first bitmap block on disk
+    private int totalBlocks;
+    private int free;            // # clear bits
+    private int initialized;     // # bitmap blocks that are on disk
+    private Cache cache;
+
+    // read the bitmap of a disk of totalBlocks blocks starting at block
+    // start. Every block from lazyFree on is free without being on disk.
+    public BlockBitmap(Cache cache, int start, int totalBlocks, int lazyFree) {
+        this.cache = cache;
+        this.start = start;
+        this.totalBlocks = totalBlocks;
+        map = new byte[blocks(totalBlocks)][Disk.blockSize];
+        dirty = new boolean[map.length];
+        initialized = blocks(lazyFree);
+        for (int i = 0; i < initialized; i++) {
+            cache.read(start + i, map[i], IOStats.FREE);
+        }
+        // the bits past the end of the disk are never free
+        for (int b = totalBlocks; b < map.length * BITS; b++) {
+            map[b / BITS][(b % BITS) >> 3] |= 1 << (b & 7);
+        }
+        for (int b = 0; b < totalBlocks; b++) {
+            if (isFree(b)) {
+                free++;
+            }
+        }
+    }
+
+    // a fresh bitmap at block start marking every block below dataStart, the
+    // bitmap's own included, in use. The next sync writes the bitmap blocks,
+    // or with lazy only the ones covering the blocks below dataStart.
+    public static BlockBitmap format(Cache cache, int start, int totalBlocks, int dataStart, boolean lazy) {
+        BlockBitmap bitmap = new BlockBitmap(cache, start, totalBlocks, 0);
+        for (int b = 0; b < dataStart; b++) {
+            bitmap.set(b);
+        }
+        if (!lazy) {
+            Arrays.fill(bitmap.dirty, true);
+        }
+        return bitmap;
+    }
+
+    // # bitmap blocks a disk of totalBlocks blocks needs
+    public static int blocks(int totalBlocks) {
+        return (totalBlocks + BITS - 1) / BITS;
+    }
+
+    // # free blocks
+    public int free() {
+        return free;
+    }
+
+    public boolean isFree(int block) {
+        return (map[block / BITS][(block % BITS) >> 3] & (1 << (block & 7))) == 0;
+    }
+
+    // mark block in use
+    public void set(int block) {
+        map[block / BITS][(block % BITS) >> 3] |= 1 << (block & 7);
+        dirty[block / BITS] = true;
+        free--;
+    }
+
+    // mark block free
+    public void clear(int block) {
+        map[block / BITS][(block % BITS) >> 3] &= ~(1 << (block & 7));
+        dirty[block / BITS] = true;
+        free++;
+    }
+
+    // the first free block at or after goal, wrapping around the end of the
+    // disk, or -1 if there is none. Whole bytes of used blocks are skipped.
+    public int findFree(int goal) {
+        if (free == 0) {
+            return -1;
+        }
+        if (goal < 0 || goal >= totalBlocks) {
+            goal = 0;
+        }
+        int block = goal;
+        for (int n = 0; n < totalBlocks; ) {
+            if ((block & 7) == 0 && block + 8 <= totalBlocks
+                && map[block / BITS][(block % BITS) >> 3] == (byte)0xff) {
+                block += 8;
+                n += 8;
+            } else {
+                if (isFree(block)) {
+                    return block;
+                }
+                block++;
+                n++;
+            }
+            if (block >= totalBlocks) {
+                block = 0;
+            }
+        }
+        return -1;
+    }
+
+    // # free blocks in a row starting at start, counting no further than max
+    public int runLength(int start, int max) {
+        int length = 0;
+        while (length < max && start + length < totalBlocks && isFree(start + length)) {
+            length++;
+        }
+        return length;
+    }
+
+    // where to allocate up to count blocks in a row near goal: goal itself
+    // if it is free, so a file grows in place, otherwise the first run of
+    // count free blocks after goal, otherwise the longest run there is.
+    // Returns -1 if no block is free.
+    public int findRun(int goal, int count) {
+        if (goal < 0 || goal >= totalBlocks) {
+            goal = 0;
+        }
+        int best = -1;
+        int bestLength = 0;
+        int distance = -1;      // how far past goal the search has got
+        int block = findFree(goal);
+        while (block != -1) {
+            int d = (block - goal + totalBlocks) % totalBlocks;
+            if (d <= distance) {
+                break;          // wrapped around to where it began
+            }
+            distance = d;
+            int length = runLength(block, count);
+            if (block == goal || length == count) {
+                return block;
+            }
+            if (length > bestLength) {
+                best = block;
+                bestLength = length;
+            }
+            block = findFree(block + length);
+        }
+        return best;
+    }
+
+    // the first block whose bitmap block is not on disk yet, totalBlocks
+    // once all of them are
+    public int lazyFree() {
+        return Math.min(initialized * BITS, totalBlocks);
+    }
+
+    // write back the bitmap blocks that changed. Bitmap blocks are put on
+    // disk in order, so the all-free ones before a changed one go too.
+    public void sync() {
+        for (int i = map.length - 1; i >= initialized; i--) {
+            if (dirty[i]) {
+                Arrays.fill(dirty, initialized, i, true);
+                initialized = i + 1;
+                break;
+            }
+        }
+        for (int i = 0; i < map.length; i++) {
+            if (dirty[i]) {
+                cache.write(start + i, map[i], IOStats.FREE);
+                dirty[i] = false;
+            }
+        }
+    }
+}
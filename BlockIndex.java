@@ -0,0 +1,94 @@
+import java.util.*;
+
+// Open-addressing map from a block ID to an int, such as the cache entry
+// holding that block. Keys and values are plain ints so a lookup never
+// boxes or allocates; probing is linear and removal shifts the rest of the
+// probe run back, so no tombstones are needed.
+
+class BlockIndex {
+
+    // returned by get() for a block that is not in the map
+    public static final int NONE = -1;
+
+    // marks an unused slot in keys
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int shift;
+    private int size;
+
+    public BlockIndex(int entries) {
+        // keep the load factor at or below one half so probe runs stay short
+        int capacity = 2;
+        shift = 31;
+        while (capacity < entries * 2) {
+            capacity <<= 1;
+            shift--;
+        }
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    // spread consecutive block IDs over the table
+    private int slot(int blockId) {
+        return (blockId * 0x9E3779B9) >>> shift;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // return the value stored for blockId, or NONE if there is none
+    public int get(int blockId) {
+        for (int i = slot(blockId); keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == blockId) {
+                return values[i];
+            }
+        }
+        return NONE;
+    }
+
+    public void put(int blockId, int value) {
+        int i = slot(blockId);
+        while (keys[i] != EMPTY && keys[i] != blockId) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == EMPTY) {
+            size++;
+        }
+        keys[i] = blockId;
+        values[i] = value;
+    }
+
+    public void remove(int blockId) {
+        int i = slot(blockId);
+        while (keys[i] != blockId) {
+            if (keys[i] == EMPTY) {
+                return; // not indexed
+            }
+            i = (i + 1) & mask;
+        }
+        // backward-shift the rest of the probe run into the hole
+        int hole = i;
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            // move keys[j] into the hole unless its home lies cyclically in (hole, j]
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        keys[hole] = EMPTY;
+        size--;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+}
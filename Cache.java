@@ -1,177 +1,611 @@
+import java.nio.*;
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 public class Cache {
 
 	// each block's size in this cache
 	private int blockSize;
 
-	// list of pages
-	private Vector<byte[]> pages;
+	// total number of pages
+	private int cacheBlocks;
+
+	// every page lives in this one off-heap buffer, so a large cache does not
+	// fill the Java heap with small arrays. Each stripe works on a slice of it.
+	private ByteBuffer pages;
+
+	// when set, every write also goes straight to disk and pages never stay dirty
+	private boolean writeThrough;
+
+	// number of dirty pages over all stripes, watched by the CacheFlusher
+	private AtomicInteger dirtyPages = new AtomicInteger(0);
+
+	// statistics, see IOStats. LongAdders keep counting off the stripe locks'
+	// critical path and do not make every thread fight over one counter.
+	private LongAdder[] hits = newAdders(IOStats.CLASSES);
+	private LongAdder[] misses = newAdders(IOStats.CLASSES);
+	private LongAdder evictions = new LongAdder();
+	private LongAdder writeBacks = new LongAdder();
+	private LongAdder syncWriteBacks = new LongAdder();
+	private LongAdder syncs = new LongAdder();
+	private LongAdder prefetches = new LongAdder();
+
+	// constant for invalid page
+	private static final int INVALID = -1;
+
+	// independently locked slices of the cache. A block always lives in the
+	// stripe its ID hashes to, so a miss in one stripe holds only that
+	// stripe's lock while it waits on the disk.
+	private Stripe[] stripes;
+
+	// stripes are only worth it once each one still has a useful number of pages
+	private static final int MIN_STRIPE_BLOCKS = 32;
+	private static final int MAX_STRIPES = 16;
+
+	private class Stripe {
+
+		// this stripe's slice of pages; entry i starts at i * blockSize
+		private ByteBuffer data;
+
+		// scratch block for disk transfers, SysLib works on byte arrays
+		private byte[] io;
+
+		// per-entry metadata, kept in parallel arrays rather than objects
+		private int[] frame;         // block ID cached in each entry, or INVALID
+		private boolean[] dirtybit;  // shows that a block has been modified
+		private long[] dirtyTime;    // when the page went from clean to dirty
+
+		// chooses which valid page to replace
+		private EvictionPolicy policy;
+
+		// block ID -> entry for every valid page
+		private BlockIndex index;
+
+		// stack of invalid entries ready to be handed out
+		private int[] freeFrames;
+		private int freeCount;
+
+		public Stripe(ByteBuffer data, int stripeBlocks, String policyName) {
+			this.data = data;
+			io = new byte[blockSize];
+			frame = new int[stripeBlocks];
+			dirtybit = new boolean[stripeBlocks];
+			dirtyTime = new long[stripeBlocks];
+			policy = newPolicy(policyName, stripeBlocks);
+			index = new BlockIndex(stripeBlocks);
+			freeFrames = new int[stripeBlocks];
+
+			// every entry starts out empty
+			for (int i = 0; i < stripeBlocks; i++) {
+				frame[i] = INVALID;
+			}
+			resetFreeFrames();
+		}
 
-	// next victim number
-	private int victim;
+		private void resetFreeFrames() {
+			// push in reverse so the lowest entries are handed out first
+			freeCount = 0;
+			for (int i = frame.length - 1; i >= 0; i--) {
+				freeFrames[freeCount++] = i;
+			}
+		}
 
-	private class Entry {
+		// copy the page of entry into buffer
+		private void load(int entry, byte buffer[]) {
+			data.position(entry * blockSize);
+			data.get(buffer, 0, blockSize);
+		}
 
-		// constant for invalid page
-		public static final int INVALID = -1;
+		// copy length bytes of the page of entry, starting at blockOffset,
+		// into buffer at offset
+		private void peek(int entry, int blockOffset, byte buffer[], int offset, int length) {
+			data.position(entry * blockSize + blockOffset);
+			data.get(buffer, offset, length);
+		}
 
-		// shows that a block has been recently used.
-		public boolean refbit;
+		// copy buffer into the page of entry
+		private void store(int entry, byte buffer[]) {
+			patch(entry, 0, buffer, 0, blockSize);
+		}
 
-		// shows that a block has been modified.
-		public boolean dirtybit;
+		// copy length bytes of buffer, starting at offset, into the page of
+		// entry at blockOffset
+		private void patch(int entry, int blockOffset, byte buffer[], int offset, int length) {
+			data.position(entry * blockSize + blockOffset);
+			data.put(buffer, offset, length);
+		}
 
-		// keeps track of open entry or in-use
-		public int frame;
+		private int nextVictim() {
 
-		public Entry() {
-			refbit = false;
-			dirtybit = false;
-			frame = INVALID;
+			// if an invalid page is available, hand it out
+			if (freeCount > 0) {
+				return freeFrames[--freeCount];
+			}
+			// if no invalid page was found, let the policy pick a victim
+			return policy.victim();
 		}
-	}
 
-	// table to hold all of the pages
-	private Entry[] pageTable = null;
+		private void writeBack(int victimEntry) {
+			// if the frame is not invalid and the block has not been modified, write to the
+			// memory and set the show this page as non-modified via dirtybit
+			if (frame[victimEntry] != INVALID && dirtybit[victimEntry] == true) {
+				load(victimEntry, io);
+				SysLib.rawwrite(frame[victimEntry], io);
+				dirtybit[victimEntry] = false;
+				dirtyPages.decrementAndGet();
+				writeBacks.increment();
+			}
+		}
 
-	public Cache(int blockSize, int cacheBlocks) {
-		this.blockSize = blockSize;
-		pageTable = new Entry[cacheBlocks];
-		victim = 0;
-		pages = new Vector<byte[]>();
+		// make room for a new block in victimEntry, writing the old one back if needed
+		private void evict(int victimEntry) {
+			if (frame[victimEntry] != INVALID) {
+				evictions.increment();
+				if (dirtybit[victimEntry]) {
+					syncWriteBacks.increment();
+				}
+			}
+			writeBack(victimEntry);
+		}
+
+		// mark an entry as modified, remembering when it first became dirty
+		private void markDirty(int entry) {
+			if (!dirtybit[entry]) {
+				dirtybit[entry] = true;
+				dirtyTime[entry] = System.currentTimeMillis();
+				dirtyPages.incrementAndGet();
+			}
+		}
+
+		// in write-through mode push a freshly written page to disk right away
+		private void commit(int entry) {
+			if (writeThrough) {
+				writeBack(entry);
+			}
+		}
+
+		// point victimEntry at blockId, dropping whatever block it cached before.
+		// referenced is false when the block is only being prefetched.
+		private void install(int victimEntry, int blockId, boolean referenced) {
+			if (frame[victimEntry] != INVALID) {
+				policy.removed(victimEntry, frame[victimEntry]);
+				index.remove(frame[victimEntry]);
+			}
+			frame[victimEntry] = blockId; // set frame to current block's ID
+			index.put(blockId, victimEntry);
+			policy.inserted(victimEntry, blockId, referenced);
+		}
+
+		// read length bytes of blockId, starting at blockOffset, into buffer
+		// at offset. Returns true on a cache hit.
+		public synchronized boolean read(int blockId, int blockOffset, byte buffer[], int offset, int length) {
+			// locate a valid page to read
+			int i = index.get(blockId);
+
+			// cache hit!!
+			if (i != BlockIndex.NONE) {
+
+				// copy pages[i] to buffer
+				peek(i, blockOffset, buffer, offset, length);
+				policy.accessed(i); // mark recently-used
+				return true; // leave
+			}
+
+			// page miss
+			// find an invalid page
+			// if no invalid page is found, all pages are full.
+			// seek for a victim
+			// nextVictim() finds an invalid page and returns it or
+			// finds the next victim
+			int victimEntry = nextVictim();
+			// write back a dirty copy
+			evict(victimEntry);
+			// read a requested block from disk
+			SysLib.rawread(blockId, io);
+			// cache it
+			// copy it to pages[victimEntry] and the wanted part to buffer
+			store(victimEntry, io);
+			System.arraycopy(io, blockOffset, buffer, offset, length);
+			install(victimEntry, blockId, true); // mark recently-used
+			return false;
+		}
+
+		// returns true if the block had to be loaded
+		public synchronized boolean prefetch(int blockId) {
+			// already cached, nothing to do
+			if (index.get(blockId) != BlockIndex.NONE) {
+				return false;
+			}
+			int victimEntry = nextVictim();
+			evict(victimEntry);
+			SysLib.rawread(blockId, io);
+			store(victimEntry, io);
+			// not referenced yet, the policy decides what that means
+			install(victimEntry, blockId, false);
+			return true;
+		}
 
-		// initialize pageTable with empty entries. Pair each entry with
-		// a corresponding block of size blockSize in pages
-		for (int i = 0; i < cacheBlocks; i++) {
-			pageTable[i] = new Entry();
-			pages.add(i, new byte[this.blockSize]);
+		// write length bytes of buffer, starting at offset, into blockId at
+		// blockOffset. Returns true on a cache hit.
+		public synchronized boolean write(int blockId, int blockOffset, byte buffer[], int offset, int length) {
+			// locate valid page to write
+			int i = index.get(blockId);
+
+			// cache hit
+			if (i != BlockIndex.NONE) {
+
+				// patch buffer into pages[i] in place
+				patch(i, blockOffset, buffer, offset, length);
+				policy.accessed(i); // mark as recently used
+				markDirty(i); // mark as modified
+				commit(i);
+				return true; // leave
+			}
+
+			// page miss
+			// find an invalid page
+			// if no invalid page is found, all pages are full.
+			// seek for a victim
+			// nextVictim() finds an invalid page and returns it or
+			// finds the next victim
+			int victimEntry = nextVictim();
+
+			// write back a dirty copy
+			evict(victimEntry);
+
+			// a partial write needs the rest of the block from disk first,
+			// a write of the whole block does not
+			if (length < blockSize) {
+				SysLib.rawread(blockId, io);
+				store(victimEntry, io);
+			}
+
+			// cache it but not write through.
+			// copy buffer to pages[victimEntry]
+			patch(victimEntry, blockOffset, buffer, offset, length);
+			install(victimEntry, blockId, true); // mark as recently used
+			markDirty(victimEntry); // mark as modified
+			commit(victimEntry);
+			return false;
+		}
+
+		// append the IDs of this stripe's dirty blocks to blocks[n..],
+		// returning the new count
+		public synchronized int collectDirty(int blocks[], int n) {
+			for (int i = 0; i < frame.length; i++) {
+				if (frame[i] != INVALID && dirtybit[i]) {
+					blocks[n++] = frame[i];
+				}
+			}
+			return n;
+		}
+
+		// write blockId back if it is still cached and dirty
+		public synchronized void writeBackBlock(int blockId) {
+			int i = index.get(blockId);
+			if (i != BlockIndex.NONE) {
+				writeBack(i);
+			}
+		}
+
+		// write back entry i if it is dirty and either force is set or it has
+		// been dirty since before cutoff. Returns true if it was written.
+		private synchronized boolean clean(int i, boolean force, long cutoff) {
+			if (frame[i] == INVALID || !dirtybit[i]) {
+				return false;
+			}
+			if (!force && dirtyTime[i] > cutoff) {
+				return false;
+			}
+			writeBack(i);
+			return true;
+		}
+
+		// background write-back. Walks the stripe starting at the policy's
+		// next likely victim, and writes pages dirty since
+		// before cutoff plus up to budget other dirty pages. The lock is taken
+		// per page so foreground hits only ever wait for one disk write.
+		public int clean(int budget, long cutoff) {
+			int written = 0;
+			int start;
+			synchronized (this) {
+				start = Math.max(0, policy.victimHint());
+			}
+			for (int n = 0; n < frame.length; n++) {
+				int i = (start + n) % frame.length;
+				if (clean(i, written < budget, cutoff)) {
+					written++;
+				}
+			}
+			return written;
+		}
+
+		public synchronized void flush() {
+			for (int i = 0; i < frame.length; i++) {
+				writeBack(i);
+				frame[i] = INVALID;
+			}
+			// every page is invalid again
+			policy.clear();
+			index.clear();
+			resetFreeFrames();
 		}
 	}
 
-	private int nextVictim() {
+	public Cache(int blockSize, int cacheBlocks) {
+		this(blockSize, cacheBlocks, false, 0, "clock");
+	}
 
-		// search for invalid page in pageTable
-		for (int i = 0; i < pageTable.length; i++) {
+	// stripeCount <= 0 picks a stripe count from the cache size. policy is
+	// one of "clock", "lru", "2q" or "arc".
+	public Cache(int blockSize, int cacheBlocks, boolean writeThrough, int stripeCount, String policy) {
+		this.blockSize = blockSize;
+		this.writeThrough = writeThrough;
+		this.cacheBlocks = cacheBlocks;
+		// a direct buffer is indexed by int, so all pages must fit in 2GB
+		long bytes = (long) cacheBlocks * blockSize;
+		if (cacheBlocks <= 0 || bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("threadOS: bad cache size of " + cacheBlocks
+					+ " blocks of " + blockSize + " bytes, the pages must take 1 to "
+					+ Integer.MAX_VALUE + " bytes");
+		}
+		pages = ByteBuffer.allocateDirect((int) bytes);
 
-			// if an invalid page is found, return position in pageTable
-			if (pageTable[i].frame == Entry.INVALID) {
-				return i;
+		if (stripeCount <= 0) {
+			stripeCount = 1;
+			while (stripeCount < MAX_STRIPES && cacheBlocks / (stripeCount * 2) >= MIN_STRIPE_BLOCKS) {
+				stripeCount *= 2;
 			}
 		}
-		// if no invalid page was found, continue to find victim
-		// start second chance algo from textbook & class explanation
-		while (true) {
-			victim = (victim + 1) % pageTable.length;
+		// every stripe needs at least one page
+		stripeCount = Math.max(1, Math.min(stripeCount, cacheBlocks));
+
+		// spread the pages as evenly as possible over the stripes, giving
+		// each stripe its own slice of the page buffer
+		stripes = new Stripe[stripeCount];
+		int base = 0;
+		for (int i = 0; i < stripeCount; i++) {
+			int stripeBlocks = cacheBlocks / stripeCount + (i < cacheBlocks % stripeCount ? 1 : 0);
+			pages.limit((base + stripeBlocks) * blockSize);
+			pages.position(base * blockSize);
+			stripes[i] = new Stripe(pages.slice(), stripeBlocks, policy);
+			base += stripeBlocks;
+		}
+		pages.clear();
+	}
 
-			// if we find a non-recently-used page, return it to caller
-			if (pageTable[victim].refbit == false)
-				return victim;
-			// otherwise, keep searching and mark this one as used
-			pageTable[victim].refbit = false;
+	// instantiate the eviction policy called name for a stripe of frames pages
+	private static EvictionPolicy newPolicy(String name, int frames) {
+		if (name.equals("lru")) {
+			return new LruPolicy(frames);
+		} else if (name.equals("2q")) {
+			return new TwoQueuePolicy(frames);
+		} else if (name.equals("arc")) {
+			return new ArcPolicy(frames);
+		} else if (!name.equals("clock")) {
+			SysLib.cerr("threadOS: unknown cache policy " + name + ", using clock\n");
 		}
+		return new ClockPolicy(frames);
 	}
 
-	private void writeBack(int victimEntry) {
-		// if the frame is not invalid and the block has not been modified, write to the
-		// memory and set the show this page as non-modified via dirtybit
-		if (pageTable[victimEntry].frame != Entry.INVALID && pageTable[victimEntry].dirtybit == true) {
-			SysLib.rawwrite(pageTable[victimEntry].frame, pages.get(victimEntry));
-			pageTable[victimEntry].dirtybit = false;
+	// pick the stripe responsible for blockId
+	private Stripe stripe(int blockId) {
+		return stripes[((blockId * 0x9E3779B9) >>> 16) % stripes.length];
+	}
+
+	private static LongAdder[] newAdders(int n) {
+		LongAdder[] adders = new LongAdder[n];
+		for (int i = 0; i < n; i++) {
+			adders[i] = new LongAdder();
 		}
+		return adders;
 	}
 
-	public synchronized boolean read(int blockId, byte buffer[]) {
-		if (blockId < 0) {
+	// count a lookup of a block of class blockClass as a hit or a miss
+	private void count(int blockClass, boolean hit) {
+		(hit ? hits : misses)[blockClass].increment();
+	}
+
+	public boolean read(int blockId, byte buffer[]) {
+		return read(blockId, buffer, IOStats.OTHER);
+	}
+
+	// read a block, accounting for it as blockClass (one of the IOStats classes)
+	public boolean read(int blockId, byte buffer[], int blockClass) {
+		return read(blockId, 0, buffer, 0, blockSize, blockClass);
+	}
+
+	// read length bytes of block blockId, starting at blockOffset, into
+	// buffer at offset
+	public boolean read(int blockId, int blockOffset, byte buffer[], int offset, int length, int blockClass) {
+		if (blockId < 0 || blockOffset < 0 || length < 0 || blockOffset + length > blockSize) {
 			SysLib.cerr("threadOS: a wrong blockId for cread\n");
 			return false;
 		}
+		count(blockClass, stripe(blockId).read(blockId, blockOffset, buffer, offset, length));
+		return true;
+	}
 
-		// locate a valid page to read
-		for (int i = 0; i < pageTable.length; i++) {
-
-			// cache hit!!
-			if (pageTable[i].frame == blockId) {
-
-				// copy pages[i] to buffer
-				System.arraycopy(pages.get(i), 0, buffer, 0, this.blockSize);
-				pageTable[i].refbit = true; // mark recently-used
-				return true; // leave
+	// read length bytes from the run of contiguous blocks starting at
+	// blockId, beginning blockOffset bytes into it, into buffer at offset.
+	// The disk moves one block per request, so the run is still read block
+	// by block underneath.
+	public boolean readRun(int blockId, int blockOffset, byte buffer[], int offset, int length, int blockClass) {
+		while (length > 0) {
+			int n = Math.min(blockSize - blockOffset, length);
+			if (!read(blockId++, blockOffset, buffer, offset, n, blockClass)) {
+				return false;
 			}
+			blockOffset = 0;
+			offset += n;
+			length -= n;
 		}
-
-		// page miss
-		// find an invalid page
-		// if no invalid page is found, all pages are full.
-		// seek for a victim
-		// nextVictim() finds an invalid page and returns it or
-		// finds the next victim
-		int victimEntry = nextVictim();
-		// write back a dirty copy
-		writeBack(victimEntry);
-		// read a requested block from disk
-		SysLib.rawread(blockId, buffer);
-		// cache it
-		// copy pages[victimEntry] to buffer
-		System.arraycopy(pages.get(victimEntry), 0, buffer, 0, this.blockSize);
-		pageTable[victimEntry].frame = blockId; // set frame to current block's ID 
-		pageTable[victimEntry].refbit = true; // mark recently-used
 		return true;
 	}
 
-	public synchronized boolean write(int blockId, byte buffer[]) {
+	// bring blockId into the cache ahead of its first read
+	public boolean prefetch(int blockId) {
 		if (blockId < 0) {
-			SysLib.cerr("threadOS: a wrong blockId for cwrite\n");
 			return false;
 		}
+		if (stripe(blockId).prefetch(blockId)) {
+			prefetches.increment();
+		}
+		return true;
+	}
 
-		// locate valid page to write
-		for (int i = 0; i < pageTable.length; i++) {
+	public boolean write(int blockId, byte buffer[]) {
+		return write(blockId, buffer, IOStats.OTHER);
+	}
 
-			// cache hit
-			if (pageTable[i].frame == blockId) {
+	// write a block, accounting for it as blockClass (one of the IOStats classes)
+	public boolean write(int blockId, byte buffer[], int blockClass) {
+		return write(blockId, 0, buffer, 0, blockSize, blockClass);
+	}
 
-				// copy buffer to pages[i]
-				System.arraycopy(buffer, 0, pages.get(i), 0, this.blockSize);
-				pageTable[i].refbit = true; // mark as recently used
-				pageTable[i].dirtybit = true; // mark as modified
-				return true; // leave
+	// write length bytes of buffer, starting at offset, into block blockId at
+	// blockOffset. The rest of the block is kept, and only read from disk if
+	// the block is not cached and the write does not cover all of it.
+	public boolean write(int blockId, int blockOffset, byte buffer[], int offset, int length, int blockClass) {
+		if (blockId < 0 || blockOffset < 0 || length < 0 || blockOffset + length > blockSize) {
+			SysLib.cerr("threadOS: a wrong blockId for cwrite\n");
+			return false;
+		}
+		count(blockClass, stripe(blockId).write(blockId, blockOffset, buffer, offset, length));
+		return true;
+	}
+
+	// write length bytes of buffer, starting at offset, into the run of
+	// contiguous blocks starting at blockId, beginning blockOffset bytes into
+	// it. Only a partially written first or last block is read from disk.
+	public boolean writeRun(int blockId, int blockOffset, byte buffer[], int offset, int length, int blockClass) {
+		while (length > 0) {
+			int n = Math.min(blockSize - blockOffset, length);
+			if (!write(blockId++, blockOffset, buffer, offset, n, blockClass)) {
+				return false;
 			}
+			blockOffset = 0;
+			offset += n;
+			length -= n;
 		}
+		return true;
+	}
 
-		// page miss
-		// find an invalid page
-		// if no invalid page is found, all pages are full.
-		// seek for a victim
-		// nextVictim() finds an invalid page and returns it or
-		// finds the next victim
-		int victimEntry = nextVictim();
+	// total number of pages in this cache
+	public int size() {
+		return cacheBlocks;
+	}
 
-		// write back a dirty copy
-		writeBack(victimEntry);
+	// number of pages currently holding data not yet on disk
+	public int dirtyPages() {
+		return dirtyPages.get();
+	}
 
-		// cache it but not write through.
-		// copy buffer to pages[victimEntry]
-		System.arraycopy(buffer, 0, pages.get(victimEntry), 0, this.blockSize);
-		pageTable[victimEntry].frame = blockId; // set frame to current block's ID
-		pageTable[victimEntry].refbit = true; // mark as recently used
-		pageTable[victimEntry].dirtybit = true; // mark as modified
-		return true; // leave
+	// write back every page dirty since before cutoff and, on top of that,
+	// up to budget more dirty pages. Used by the CacheFlusher; returns the
+	// number of pages written.
+	public int writeBackDirty(int budget, long cutoff) {
+		int written = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			written += stripes[i].clean(Math.max(0, budget - written), cutoff);
+		}
+		return written;
 	}
 
-	public synchronized void sync() {
-		for (int i = 0; i < pageTable.length; i++) {
-			writeBack(i);
+	// name of the eviction policy in use
+	public String policy() {
+		return stripes[0].policy.name();
+	}
+
+	// number of reads and writes that found their block cached
+	public long hits() {
+		long total = 0;
+		for (int i = 0; i < hits.length; i++) {
+			total += hits[i].sum();
+		}
+		return total;
+	}
+
+	// number of reads and writes that had to bring their block in
+	public long misses() {
+		long total = 0;
+		for (int i = 0; i < misses.length; i++) {
+			total += misses[i].sum();
 		}
+		return total;
+	}
+
+	// share of reads and writes served from the cache so far
+	public double hitRatio() {
+		long hits = hits();
+		long total = hits + misses();
+		return total == 0 ? 0.0 : (double) hits / total;
+	}
+
+	// number of victims that replaced a valid block
+	public long evictions() {
+		return evictions.sum();
+	}
+
+	// number of evictions that still had to write a dirty victim synchronously
+	public long syncWriteBacks() {
+		return syncWriteBacks.sum();
+	}
+
+	// add this cache's counters to stats
+	public void stats(IOStats stats) {
+		for (int i = 0; i < IOStats.CLASSES; i++) {
+			stats.hits[i] += hits[i].sum();
+			stats.misses[i] += misses[i].sum();
+		}
+		stats.evictions += evictions.sum();
+		stats.writeBacks += writeBacks.sum();
+		stats.syncWriteBacks += syncWriteBacks.sum();
+		stats.syncs += syncs.sum();
+		stats.prefetches += prefetches.sum();
+	}
+
+	public void resetStats() {
+		for (int i = 0; i < IOStats.CLASSES; i++) {
+			hits[i].reset();
+			misses[i].reset();
+		}
+		evictions.reset();
+		writeBacks.reset();
+		syncWriteBacks.reset();
+		syncs.reset();
+		prefetches.reset();
+	}
+
+	// write every dirty page back in one ascending sweep over the disk
+	// instead of in page order. Each block is written under its own
+	// stripe's lock, so a page that was evicted or cleaned in the meantime
+	// is simply skipped.
+	private void writeBackSorted() {
+		int[] dirty = new int[cacheBlocks];
+		int n = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			n = stripes[i].collectDirty(dirty, n);
+		}
+		Arrays.sort(dirty, 0, n);
+		for (int i = 0; i < n; i++) {
+			stripe(dirty[i]).writeBackBlock(dirty[i]);
+		}
+	}
+
+	public void sync() {
+		syncs.increment();
+		writeBackSorted();
 		SysLib.sync();
 	}
 
-	public synchronized void flush() {
-		for (int i = 0; i < pageTable.length; i++) {
-			writeBack(i);
-			pageTable[i].refbit = false;
-			pageTable[i].frame = Entry.INVALID;
+	public void flush() {
+		syncs.increment();
+		writeBackSorted();
+		// anything dirtied since is written back as each stripe is invalidated
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i].flush();
 		}
 		SysLib.sync();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,126 @@
+// ThreadOS program that measures Cache throughput with 1, 4, 16 and 64
+// concurrent ThreadOS threads, once with a single stripe, which keeps the
+// whole cache under one lock like the Cache before striping, and once with
+// the stripe count Cache picks for itself.
+//
+// Every thread reads blocks through the same cache: most of them from a
+// small hot set, the rest from anywhere on the disk, so hits on one stripe
+// run alongside misses that wait for the disk on another. Only reads are
+// issued, so the disk contents are left as they are. The scheduler starts
+// one new thread per time slice, so the workers wait for each other and
+// only the time from when the last one is ready to when the last one is
+// done is counted.
+//
+// Usage from the ThreadOS shell: l CacheBench [reads per thread]
+
+import java.util.*;
+
+public class CacheBench extends Thread {
+    private static final int[] THREADS = { 1, 4, 16, 64 };
+    private static final int BLOCKS = 1000;     // the ThreadOS disk
+    private static final int FRAMES = 256;      // cache size in blocks
+    private static final int HOT = 64;          // blocks most reads go to
+    private static final int HOT_PERCENT = 95;  // % of reads to the hot set
+
+    // the cache under test, shared by the worker threads
+    private static Cache cache;
+
+    // start line for the workers of one run, guarded by CacheBench.class
+    private static int workers;     // # workers in this run
+    private static int ready;       // # workers at the start line
+    private static long start;      // when the last one got there
+    private static long end;        // when the last one finished
+
+    private boolean worker;
+    private int reads = 20000;
+    private int seed;
+
+    public CacheBench( ) {
+        this( new String[0] );
+    }
+
+    // args = [reads per thread], or "worker" reads seed for a worker
+    public CacheBench( String args[] ) {
+        int i = 0;
+        if ( args.length > 0 && args[0].equals( "worker" ) ) {
+            worker = true;
+            i++;
+        }
+        if ( args.length > i )
+            reads = Integer.parseInt( args[i] );
+        if ( args.length > i + 1 )
+            seed = Integer.parseInt( args[i + 1] );
+    }
+
+    public void run( ) {
+        if ( worker )
+            work( );
+        else
+            measure( );
+        SysLib.exit( );
+    }
+
+    private void measure( ) {
+        SysLib.cout( "CacheBench: " + reads + " reads per thread, " + FRAMES +
+                     " frames, " + HOT_PERCENT + "% of reads to " + HOT +
+                     " hot blocks out of " + BLOCKS + "\n" );
+        // once untimed, so the first row is not paying for the JIT
+        run( 1, 0 );
+        SysLib.cout( "threads  1 stripe (reads/s)  striped (reads/s)\n" );
+        for ( int t = 0; t < THREADS.length; t++ ) {
+            long single = run( THREADS[t], 1 );
+            long striped = run( THREADS[t], 0 );
+            SysLib.cout( pad( THREADS[t], 7 ) + pad( single, 20 ) +
+                         pad( striped, 19 ) + "\n" );
+        }
+    }
+
+    // reads per second of threads workers sharing a cache of stripes
+    // stripes, 0 for the default
+    private long run( int threads, int stripes ) {
+        cache = new Cache( Disk.blockSize, FRAMES, false, stripes, "clock" );
+        synchronized ( CacheBench.class ) {
+            workers = threads;
+            ready = 0;
+        }
+        for ( int i = 0; i < threads; i++ ) {
+            String args[] = { "CacheBench", "worker", "" + reads, "" + i };
+            SysLib.exec( args );
+        }
+        for ( int i = 0; i < threads; i++ )
+            SysLib.join( );
+        long elapsed = Math.max( 1, end - start );
+        return (long)threads * reads * 1000000000L / elapsed;
+    }
+
+    private void work( ) {
+        Random random = new Random( seed );
+        byte[] buffer = new byte[Disk.blockSize];
+        synchronized ( CacheBench.class ) {
+            if ( ++ready == workers ) {
+                start = System.nanoTime( );
+                CacheBench.class.notifyAll( );
+            }
+            while ( ready < workers ) {
+                try {
+                    CacheBench.class.wait( );
+                } catch ( InterruptedException e ) { }
+            }
+        }
+        for ( int i = 0; i < reads; i++ ) {
+            int block = random.nextInt( 100 ) < HOT_PERCENT
+                ? random.nextInt( HOT ) : random.nextInt( BLOCKS );
+            cache.read( block, buffer );
+        }
+        synchronized ( CacheBench.class ) {
+            end = System.nanoTime( );
+        }
+    }
+
+    private static String pad( long n, int width ) {
+        String s = "" + n;
+        while ( s.length( ) < width )
+            s = " " + s;
+        return s;
+    }
+}
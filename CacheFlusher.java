@@ -0,0 +1,48 @@
+// Kernel thread that writes dirty cache pages back in the background, so
+// that misses in Cache almost always find a clean victim to replace.
+//
+// Every interval it checks the share of dirty pages. Once that reaches
+// highWater percent it writes pages back until only lowWater percent are
+// dirty. Independently of the watermarks, no page stays dirty for longer
+// than maxDirtyAge milliseconds (0 turns the age limit off).
+
+public class CacheFlusher extends Thread {
+    private Cache cache;
+    private int highWater;   // % of dirty pages that starts a write-back
+    private int lowWater;    // % of dirty pages a write-back stops at
+    private int maxDirtyAge; // ms a page may stay dirty
+    private int interval;    // ms between two checks
+
+    public CacheFlusher( Cache cache, int highWater, int lowWater,
+                         int maxDirtyAge, int interval ) {
+        this.cache = cache;
+        this.highWater = highWater;
+        this.lowWater = Math.min( lowWater, highWater );
+        this.maxDirtyAge = maxDirtyAge;
+        this.interval = Math.max( 1, interval );
+        setDaemon( true ); // never keeps ThreadOS from shutting down
+    }
+
+    public void run( ) {
+        while ( true ) {
+            try {
+                sleep( interval );
+            } catch ( InterruptedException e ) { }
+
+            int pages = cache.size( );
+            int dirty = cache.dirtyPages( );
+
+            // over the high watermark: clean down to the low watermark
+            int budget = 0;
+            if ( dirty * 100 >= highWater * pages )
+                budget = dirty - lowWater * pages / 100;
+
+            // pages dirty since before cutoff are written regardless
+            long cutoff = Long.MIN_VALUE;
+            if ( maxDirtyAge > 0 )
+                cutoff = System.currentTimeMillis( ) - maxDirtyAge;
+
+            cache.writeBackDirty( budget, cutoff );
+        }
+    }
+}
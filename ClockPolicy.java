@@ -0,0 +1,56 @@
+// Second-chance CLOCK, the replacement Cache has always used: the hand
+// sweeps the frames, clearing reference bits, and stops at the first frame
+// that has not been referenced since the hand last passed it.
+
+public class ClockPolicy implements EvictionPolicy {
+
+    // shows that a frame has been recently used
+    private boolean[] refbit;
+
+    // next victim number
+    private int victim;
+
+    public ClockPolicy(int frames) {
+        refbit = new boolean[frames];
+        victim = 0;
+    }
+
+    public void inserted(int frame, int blockId, boolean referenced) {
+        refbit[frame] = referenced;
+    }
+
+    public void accessed(int frame) {
+        refbit[frame] = true; // mark recently-used
+    }
+
+    public void removed(int frame, int blockId) {
+        refbit[frame] = false;
+    }
+
+    public int victim() {
+        // start second chance algo from textbook & class explanation
+        while (true) {
+            victim = (victim + 1) % refbit.length;
+
+            // if we find a non-recently-used frame, return it to caller
+            if (refbit[victim] == false)
+                return victim;
+            // otherwise, keep searching and mark this one as used
+            refbit[victim] = false;
+        }
+    }
+
+    public int victimHint() {
+        return (victim + 1) % refbit.length;
+    }
+
+    public void clear() {
+        for (int i = 0; i < refbit.length; i++) {
+            refbit[i] = false;
+        }
+    }
+
+    public String name() {
+        return "clock";
+    }
+}
@@ -0,0 +1,80 @@
+// ThreadOS program that times creating and deleting a file in directories
+// of 1000, 10000 and 32767 slots, 32767 being the most a short iNumber
+// allows. Each directory is first filled to all but a few slots. Then one
+// file at a time is created and deleted again, so every create has to
+// find one of the few free slots.
+//
+// Only an in-memory Directory is used, so the disk is left as it is.
+//
+// Usage from the ThreadOS shell: l CreateBench [cycles]
+
+import java.util.*;
+
+public class CreateBench extends Thread {
+    private static final int[] SLOTS = { 1000, 10000, 32767 };
+    private static final int SPARE = 4;         // slots left free
+
+    private int cycles = 1000000;
+
+    public CreateBench( ) {
+        this( new String[0] );
+    }
+
+    public CreateBench( String args[] ) {
+        if ( args.length > 0 )
+            cycles = Integer.parseInt( args[0] );
+    }
+
+    public void run( ) {
+        SysLib.cout( "CreateBench: " + cycles + " create/delete cycles, " +
+                     SPARE + " slots free\n" );
+        SysLib.cout( "slots  fill (creates/s)  create+delete (cycles/s)\n" );
+        for ( int s = 0; s < SLOTS.length; s++ ) {
+            // once untimed first, so the row is not paying for the JIT
+            measure( SLOTS[s] );
+            long[] rates = measure( SLOTS[s] );
+            if ( rates == null ) {
+                SysLib.cerr( "CreateBench: a create/delete cycle failed\n" );
+                break;
+            }
+            SysLib.cout( pad( SLOTS[s], 5 ) + pad( rates[0], 18 ) +
+                         pad( rates[1], 26 ) + "\n" );
+        }
+        SysLib.exit( );
+    }
+
+    // { creates/s filling a directory of slots slots, create/delete
+    // cycles/s once it is full }, or null if a cycle failed
+    private long[] measure( int slots ) {
+        Directory directory = new Directory( slots );
+
+        // slot 0 is "/" itself
+        int files = slots - 1 - SPARE;
+        long start = System.nanoTime( );
+        for ( int i = 0; i < files; i++ )
+            directory.ialloc( "/f" + i );
+        long filled = Math.max( 1, System.nanoTime( ) - start );
+
+        // the names are made up front so the loop times the directory
+        String[] names = new String[SPARE];
+        for ( int i = 0; i < SPARE; i++ )
+            names[i] = "/new" + i;
+        start = System.nanoTime( );
+        for ( int i = 0; i < cycles; i++ ) {
+            short iNumber = directory.ialloc( names[i % SPARE] );
+            if ( iNumber < 0 || !directory.ifree( iNumber ) )
+                return null;
+        }
+        long elapsed = Math.max( 1, System.nanoTime( ) - start );
+
+        return new long[] { files * 1000000000L / filled,
+                            cycles * 1000000000L / elapsed };
+    }
+
+    private static String pad( long n, int width ) {
+        String s = "" + n;
+        while ( s.length( ) < width )
+            s = " " + s;
+        return s;
+    }
+}
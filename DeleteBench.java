@@ -0,0 +1,79 @@
+// ThreadOS program that times SysLib.delete of files of 1, 10, 100 and 267
+// blocks, the largest file without extents, on a disk formatted with the
+// free list and with the bitmap. Each file is written and synced first,
+// then the delete is timed on its own and together with the SysLib.csync
+// that writes the kernel cache back, whose block writes are counted too.
+//
+// WARNING: this formats the disk, so every file on it is lost. It is left
+// formatted with 64 files.
+//
+// Usage from the ThreadOS shell: l DeleteBench [rounds]
+
+import java.util.*;
+
+public class DeleteBench extends Thread {
+    private static final int[] SIZES = { 1, 10, 100, 267 };   // in blocks
+    private static final int[] OPTIONS = { 0, SuperBlock.FORMAT_BITMAP };
+    private static final String[] NAMES = { "free list", "bitmap" };
+    private static final int FILES = 64;
+
+    private int rounds = 10;
+
+    public DeleteBench( ) {
+        this( new String[0] );
+    }
+
+    public DeleteBench( String args[] ) {
+        if ( args.length > 0 )
+            rounds = Integer.parseInt( args[0] );
+    }
+
+    public void run( ) {
+        SysLib.cout( "DeleteBench: best of " + rounds + " rounds\n" );
+        SysLib.cout( "layout     blocks  delete (us)  delete+csync (us)  blocks written\n" );
+        for ( int o = 0; o < OPTIONS.length; o++ ) {
+            SysLib.format( FILES, OPTIONS[o] );
+            for ( int s = 0; s < SIZES.length; s++ ) {
+                byte[] data = new byte[SIZES[s] * Disk.blockSize];
+                long bestDelete = Long.MAX_VALUE;
+                long bestSync = Long.MAX_VALUE;
+                long written = 0;
+                for ( int r = 0; r < rounds; r++ ) {
+                    int fd = SysLib.open( "victim", "w" );
+                    SysLib.write( fd, data );
+                    SysLib.close( fd );
+                    SysLib.csync( );
+
+                    SysLib.resetStats( );
+                    long start = System.nanoTime( );
+                    if ( SysLib.delete( "victim" ) < 0 ) {
+                        SysLib.cerr( "DeleteBench: can't delete victim\n" );
+                        SysLib.exit( );
+                        return;
+                    }
+                    long deleted = System.nanoTime( );
+                    SysLib.csync( );
+                    long synced = System.nanoTime( );
+                    IOStats stats = SysLib.stats( );
+                    bestDelete = Math.min( bestDelete, deleted - start );
+                    bestSync = Math.min( bestSync, synced - start );
+                    written = stats.writeBacks;
+                }
+                SysLib.cout( pad( NAMES[o], 9, true ) +
+                             pad( "" + SIZES[s], 8, false ) +
+                             pad( "" + bestDelete / 1000, 13, false ) +
+                             pad( "" + bestSync / 1000, 19, false ) +
+                             pad( "" + written, 16, false ) + "\n" );
+            }
+        }
+        SysLib.format( FILES );
+        SysLib.csync( );
+        SysLib.exit( );
+    }
+
+    private static String pad( String s, int width, boolean left ) {
+        while ( s.length( ) < width )
+            s = left ? s + " " : " " + s;
+        return s;
+    }
+}
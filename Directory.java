@@ -4,15 +4,67 @@
 * Class: CSS430
 */
 
+import java.util.*;
+
 public class Directory
 {
 
     // maximum allowable character length = 30
     private static int maxChars = 30;
 
-    // arrays used to store sizes and names
+    // arrays used to store sizes and names. Besides the name length in its
+    // low byte, fsizes holds the entry's type in the next byte and the
+    // iNumber of its parent directory in the upper half. Entries written
+    // before subdirectories existed read as files in "/".
     private int[] fsizes;
     private char[][] fnames;
+
+    // entry types
+    public static final int FILE = 0;
+    public static final int DIRECTORY = 1;
+
+    // set in the type byte of an fsizes entry on disk when its name is
+    // stored as 2 bytes per char, high byte first. Names written without
+    // it hold 1 byte per char.
+    private static final int WIDE_NAME = 0x80 << 8;
+
+    // # entries whose parent is each directory
+    private int[] children;
+
+    // the entries of each directory chained together, most recently
+    // created first, so listing one only visits its own entries
+    private short[] firstChild;
+    private short[] nextSibling;
+    private short[] prevSibling;
+
+    // stack of the free slots: the lowest on top after a load, then the
+    // most recently freed
+    private short[] freeSlots;
+    private int freeCount;
+
+    // slots changed since the last takeDirty( ), flagged and stacked
+    private boolean[] dirty;
+    private short[] dirtySlots;
+    private int dirtyCount;
+
+    // bumped whenever an iNumber is freed, so cached lookups can tell
+    private int[] versions;
+
+    // hash index from (parent, name) to its iNumber, open addressing with
+    // linear probing. Each slot holds an iNumber, or EMPTY.
+    private short[] index;
+    private int mask;
+    private static final short EMPTY = -1;
+
+    // # path lookups remembered, direct-mapped by the path's hash, and what
+    // they found: the iNumber in the upper half of the long, its stamp in
+    // the lower. A found iNumber is stamped with its version and a path
+    // that was not found with the # creates so far, so a free or a create
+    // makes them stale.
+    private static final int DENTRIES = 256;
+    private String[] dentryPaths;
+    private long[] dentries;
+    private int creates;
     
 
     // constructor
@@ -35,76 +87,184 @@ public class Directory
 
         // copy root characters into fnames
         root.getChars(0, fsizes[0], fnames[0], 0);
+
+        children = new int[maxINumber];
+        firstChild = new short[maxINumber];
+        nextSibling = new short[maxINumber];
+        prevSibling = new short[maxINumber];
+        freeSlots = new short[maxINumber];
+        dirty = new boolean[maxINumber];
+        dirtySlots = new short[maxINumber];
+        versions = new int[maxINumber];
+        dentryPaths = new String[DENTRIES];
+        dentries = new long[DENTRIES];
+
+        // size the index so it stays at most half full
+        int capacity = 2;
+        while (capacity < maxINumber * 2) {
+            capacity <<= 1;
+        }
+        index = new short[capacity];
+        mask = capacity - 1;
+        rebuildIndex();
     }
 
     // converts byte data into directory info
-    public void bytes2directory(byte[] data) {
+    public synchronized void bytes2directory(byte[] data) {
         // assumes data[] contains directory information retrieved from disk 
         
-        // initialize the directory's fsizes[] with data from parameter
-        int offset = 0;
-        for (int i = 0; i < fsizes.length; i++, offset += 4) {
-            fsizes[i] = SysLib.bytes2int(data, offset);
-        }
-        // initialize the directory's fnames[] with data from parameter
-        for (int i = 0; i < fnames.length; i++, offset += maxChars * 2) {
-            String fname = new String( data, offset, maxChars * 2);
-            fname.getChars(0, fsizes[i], fnames[i], 0);
+        // initialize the directory's fsizes[] and fnames[] with data from
+        // parameter, decoding each name straight into its char array
+        int names = namesOffset(0);
+        for (int i = 0; i < fsizes.length; i++) {
+            int size = SysLib.bytes2int(data, sizesOffset(i));
+            fsizes[i] = size & ~WIDE_NAME;
+            int offset = names + i * maxChars * 2;
+            for (int c = 0; c < length(i); c++) {
+                if ((size & WIDE_NAME) != 0) {
+                    fnames[i][c] = (char)((data[offset + c * 2] & 0xff) << 8 | (data[offset + c * 2 + 1] & 0xff));
+                } else {
+                    fnames[i][c] = (char)(data[offset + c] & 0xff);
+                }
+            }
         }
+        rebuildIndex();
+        Arrays.fill(dentryPaths, null);
+
+        // the file holds it all now
+        Arrays.fill(dirty, false);
+        dirtyCount = 0;
     }
 
     // converts directory info into byte data
-    public byte[] directory2bytes() {
+    public synchronized byte[] directory2bytes() {
         
         // converts and return directory information into a plain byte array 
-        byte[] data = new byte[fsizes.length * 4 + fnames.length * maxChars * 2]; 
-        int offset = 0; 
-        for ( int i = 0; i < fsizes.length; i++, offset += 4 ) 
-            SysLib.int2bytes( fsizes[i], data, offset ); 
+        byte[] data = new byte[bytes()]; 
+        sizes2bytes(0, fsizes.length, data, 0);
 
         // this byte array will be written back to disk
-        for ( int i = 0; i < fnames.length; i++, offset += maxChars * 2 ) { 
-            String tableEntry = new String( fnames[i], 0, fsizes[i] ); 
-            byte[] bytes = tableEntry.getBytes( ); 
-            System.arraycopy( bytes, 0, data, offset, bytes.length ); 
-        } 
+        names2bytes(0, fnames.length, data, namesOffset(0));
 
         // return data[] array back to caller
         return data; 
     }
 
+    // # bytes of the directory file
+    public int bytes() {
+        return fsizes.length * 4 + fnames.length * maxChars * 2;
+    }
+
+    // where the fsizes entry of slot is in the directory file
+    public int sizesOffset(int slot) {
+        return slot * 4;
+    }
+
+    // where the name of slot is in the directory file
+    public int namesOffset(int slot) {
+        return fsizes.length * 4 + slot * maxChars * 2;
+    }
+
+    // converts the fsizes entries of slots from through to - 1 into data
+    // at offset
+    public synchronized void sizes2bytes(int from, int to, byte[] data, int offset) {
+        for ( int i = from; i < to; i++, offset += 4 ) 
+            SysLib.int2bytes( fsizes[i] == 0 ? 0 : fsizes[i] | WIDE_NAME, data, offset ); 
+    }
+
+    // converts the names of slots from through to - 1 into data at offset,
+    // maxChars * 2 bytes each: 2 bytes per char, high byte first, the rest
+    // of the slot zero
+    public synchronized void names2bytes(int from, int to, byte[] data, int offset) {
+        for ( int i = from; i < to; i++, offset += maxChars * 2 ) { 
+            int c = 0;
+            for ( ; c < length( i ); c++ ) {
+                data[offset + c * 2] = (byte)( fnames[i][c] >> 8 );
+                data[offset + c * 2 + 1] = (byte)fnames[i][c];
+            }
+            Arrays.fill( data, offset + c * 2, offset + maxChars * 2, (byte)0 );
+        } 
+    }
+
+    // returns the slots changed since the last call in ascending order, and
+    // starts tracking changes afresh. A slot that changes again while its
+    // bytes are being written is simply handed out again next time.
+    public synchronized int[] takeDirty() {
+        int[] slots = new int[dirtyCount];
+        for (int i = 0; i < dirtyCount; i++) {
+            slots[i] = dirtySlots[i];
+            dirty[dirtySlots[i]] = false;
+        }
+        dirtyCount = 0;
+        Arrays.sort(slots);
+        return slots;
+    }
+
+    private void markDirty(short slot) {
+        if (!dirty[slot]) {
+            dirty[slot] = true;
+            dirtySlots[dirtyCount++] = slot;
+        }
+    }
 
     // allocates space in the directory for file called fileName
     public short ialloc(String fileName) {
-        // filename is the one of a file to be created. 
-        
-        int fileLength = fileName.length();
-
-        // 1 up to fsizes.length because root directory at fsizes[0] 
-        // should not be allocated to
-        for (short i = 1; i < fsizes.length; i++) { 
-            if (fsizes[i] == 0) {
-                if (fileLength <= maxChars) {
-                    fsizes[i] = fileLength;
-                } else {
-                    fsizes[i] = maxChars;
-                }
-                // allocates a new inode number for this filename
-                fnames[i] = fileName.substring(0, fsizes[i]).toCharArray();
-                return i;
-            }
+        return ialloc(fileName, FILE);
+    }
+
+    // allocates an entry of type for the path fileName, whose parent
+    // directory must exist. Only the last component of the path is stored.
+    public synchronized short ialloc(String fileName, int type) {
+        // filename is the one of a file to be created.
+
+        // split off the name from the path of its parent
+        int slash = fileName.lastIndexOf('/');
+        short parent = slash <= 0 ? 0 : resolve(fileName, slash);
+        if (parent < 0 || !isDirectory(parent) || slash == fileName.length() - 1) {
+            return -1;
         }
-        // return -1 for any error
-        return -1;
+        // a longer name could never be looked up again, namei compares
+        // whole components
+        int fileLength = fileName.length() - slash - 1;
+        if (fileLength > maxChars) {
+            return -1;
+        }
+
+        // the name is taken already
+        if (lookup(parent, fileName, slash + 1, slash + 1 + fileLength) >= 0) {
+            return -1;
+        }
+
+        // take the free slot on top, the root directory at fsizes[0] 
+        // is never on the stack
+        if (freeCount == 0) {
+            // return -1 for any error
+            return -1;
+        }
+        short i = freeSlots[--freeCount];
+        fsizes[i] = fileLength | type << 8 | parent << 16;
+        // allocates a new inode number for this filename
+        fileName.getChars(slash + 1, slash + 1 + fileLength, fnames[i], 0);
+        indexAdd(i);
+        link(i);
+        creates++;
+        markDirty(i);
+        return i;
     }
 
     // frees the inumber from directory
-    public boolean ifree(short iNumber) {
+    public synchronized boolean ifree(short iNumber) {
         // deallocates this inumber (inode number) 
         // the corresponding file will be deleted.
         boolean canDeleteFile = false;
-        if (fsizes[iNumber] > 0) {
+        // a directory has to be empty first
+        if (fsizes[iNumber] > 0 && iNumber != 0 && children[iNumber] == 0) {
+            indexRemove(iNumber);
+            unlink(iNumber);
+            versions[iNumber]++;
             fsizes[iNumber] = 0;
+            freeSlots[freeCount++] = iNumber;
+            markDirty(iNumber);
             canDeleteFile = true;
         }
 
@@ -113,18 +273,197 @@ public class Directory
     }
 
     // finds the iNumber for a specific file
-    public short namei(String fileName) {
-        // returns the inumber corresponding to this filename 
-        for (short i = 0; i < fsizes.length; i++) { 
-            String currFileName = new String(fnames[i]);
+    public synchronized short namei(String fileName) {
+        // returns the inumber corresponding to this path, a relative one
+        // starting at "/". Recent lookups come from the dentry cache.
+        int d = (fileName.hashCode() & 0x7fffffff) % DENTRIES;
+        if (fileName.equals(dentryPaths[d])) {
+            short cached = (short)(dentries[d] >> 32);
+            int stamp = (int)dentries[d];
+            if (cached >= 0 ? stamp == versions[cached] : stamp == creates) {
+                return cached;
+            }
+        }
+        short iNumber = resolve(fileName, fileName.length());
+        int stamp = iNumber >= 0 ? versions[iNumber] : creates;
+        dentryPaths[d] = fileName;
+        dentries[d] = (long)iNumber << 32 | (stamp & 0xffffffffL);
+        return iNumber;
+    }
+
+    // whether iNumber is a directory
+    public synchronized boolean isDirectory(short iNumber) {
+        return iNumber == 0 || (fsizes[iNumber] > 0 && type(iNumber) == DIRECTORY);
+    }
+
+    // adds the names in the directory at path to names, returns how many,
+    // or -1 if path is not a directory
+    public synchronized int readdir(String path, Vector<String> names) {
+        short dir = namei(path);
+        if (dir < 0 || !isDirectory(dir)) {
+            return -1;
+        }
+        for (short i = firstChild[dir]; i != EMPTY; i = nextSibling[i]) {
+            names.add(new String(fnames[i], 0, length(i)));
+        }
+        return children[dir];
+    }
+
+    // the iNumber of the first end characters of path, walked one
+    // component at a time from "/", or -1 if there is none
+    private short resolve(String path, int end) {
+        if (end == 0) {
+            return -1;
+        }
+        short iNumber = 0;
+        for (int c = 0; c < end; ) {
+            if (path.charAt(c) == '/') {
+                c++;
+                continue;
+            }
+            int next = path.indexOf('/', c);
+            if (next < 0 || next > end) {
+                next = end;
+            }
+            if (!isDirectory(iNumber)) {
+                return -1;
+            }
+            iNumber = lookup(iNumber, path, c, next);
+            if (iNumber < 0) {
+                return -1;
+            }
+            c = next;
+        }
+        return iNumber;
+    }
+
+    // the iNumber of the entry in directory parent named by the characters
+    // from through to - 1 of path, looked up without building a String
+    private short lookup(short parent, String path, int from, int to) {
+        int length = to - from;
+        int h = 0;
+        for (int c = from; c < to; c++) {
+            h = 31 * h + path.charAt(c);
+        }
+        for (int slot = slot(h, parent); index[slot] != EMPTY; slot = (slot + 1) & mask) {
+            short i = index[slot];
             // if we find it, return the number
-            if (fsizes[i] == fileName.length() && fileName.equals(currFileName)) {
+            if (length(i) == length && parent(i) == parent && matches(i, path, from)) {
                 return i;
             }
         }
-        // no file with fileName found in memory
         return -1;
     }
 
+    // whether the name of iNumber is in path from from on
+    private boolean matches(short iNumber, String path, int from) {
+        char[] name = fnames[iNumber];
+        for (int c = 0; c < length(iNumber); c++) {
+            if (name[c] != path.charAt(from + c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int length(int iNumber) {
+        return fsizes[iNumber] & 0xff;
+    }
+
+    private int type(short iNumber) {
+        return (fsizes[iNumber] >> 8) & 0xff;
+    }
+
+    private short parent(short iNumber) {
+        return (short)(fsizes[iNumber] >>> 16);
+    }
+
+    // the index slot to start probing at for a name hashing to h in parent.
+    // Names like f1, f2, ... hash to neighbouring values, so h is scrambled
+    // first or they would fill the index in long runs that every probe for
+    // a new name has to walk
+    private int slot(int h, short parent) {
+        h = (h ^ parent * 0x9E3779B9) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    // the slot to start probing at for iNumber
+    private int home(short iNumber) {
+        int h = 0;
+        for (int c = 0; c < length(iNumber); c++) {
+            h = 31 * h + fnames[iNumber][c];
+        }
+        return slot(h, parent(iNumber));
+    }
 
-}
\ No newline at end of file
+    private void indexAdd(short iNumber) {
+        int slot = home(iNumber);
+        while (index[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = iNumber;
+    }
+
+    // remove iNumber from the index, shifting the rest of its probe run
+    // back so lookups never stop at a hole
+    private void indexRemove(short iNumber) {
+        int slot = home(iNumber);
+        while (index[slot] != iNumber) {
+            slot = (slot + 1) & mask;
+        }
+        int hole = slot;
+        for (slot = (slot + 1) & mask; index[slot] != EMPTY; slot = (slot + 1) & mask) {
+            int home = home(index[slot]);
+            // move the entry into the hole unless its home lies between
+            // the hole and where it sits now
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                index[hole] = index[slot];
+                hole = slot;
+            }
+        }
+        index[hole] = EMPTY;
+    }
+
+    // add iNumber to the entries of its parent
+    private void link(short iNumber) {
+        short parent = parent(iNumber);
+        prevSibling[iNumber] = EMPTY;
+        nextSibling[iNumber] = firstChild[parent];
+        if (firstChild[parent] != EMPTY) {
+            prevSibling[firstChild[parent]] = iNumber;
+        }
+        firstChild[parent] = iNumber;
+        children[parent]++;
+    }
+
+    // take iNumber off the entries of its parent
+    private void unlink(short iNumber) {
+        short parent = parent(iNumber);
+        if (prevSibling[iNumber] != EMPTY) {
+            nextSibling[prevSibling[iNumber]] = nextSibling[iNumber];
+        } else {
+            firstChild[parent] = nextSibling[iNumber];
+        }
+        if (nextSibling[iNumber] != EMPTY) {
+            prevSibling[nextSibling[iNumber]] = prevSibling[iNumber];
+        }
+        children[parent]--;
+    }
+
+    // index every name in use, except "/" itself, chain and count the
+    // entries of each directory and stack the free slots
+    private void rebuildIndex() {
+        Arrays.fill(index, EMPTY);
+        Arrays.fill(children, 0);
+        Arrays.fill(firstChild, EMPTY);
+        freeCount = 0;
+        for (short i = (short)(fsizes.length - 1); i >= 1; i--) {
+            if (fsizes[i] > 0) {
+                indexAdd(i);
+                link(i);
+            } else {
+                freeSlots[freeCount++] = i;
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+// Replacement policy a Cache stripe delegates victim selection to.
+//
+// A policy tracks the frames 0..frames-1 of one stripe and is always
+// called with that stripe's lock held. Invalid frames are handed out by
+// the stripe itself, so victim() is only asked once every frame is valid.
+
+public interface EvictionPolicy {
+
+    // frame now holds blockId. referenced is false for a block that was only
+    // prefetched and has not been asked for yet.
+    void inserted(int frame, int blockId, boolean referenced);
+
+    // a cache hit on frame
+    void accessed(int frame);
+
+    // frame is about to stop holding blockId, either to be reused or flushed
+    void removed(int frame, int blockId);
+
+    // pick a valid frame to replace
+    int victim();
+
+    // a frame that will be replaced soon, without choosing it. The
+    // CacheFlusher starts cleaning from here.
+    int victimHint();
+
+    // every frame has become invalid
+    void clear();
+
+    String name();
+}
@@ -10,15 +10,39 @@ public class FileSystem {
     private SuperBlock superblock;
     private Directory directory;
     private FileTable filetable;
+    private InodeTable inodes;
+
+    // every block the file system touches is read and written through here
+    private Cache cache;
+
+    // prefetches blocks for sequential readers, null if read-ahead is off
+    private ReadAhead readAhead;
+
+    // # inodes kept in core once no file table entry refers to them
+    private final static int IN_CORE_INODES = 64;
+
+    // a writer reserves at least this many blocks at a time from the
+    // superblock, and keeps those it does not use until it is closed
+    private final static int POOL_BLOCKS = 8;
+
+    // a sequential reader starts out reading this many blocks ahead
+    private final static int MIN_READ_AHEAD = 2;
 
     // constructor for file system
 
-    public FileSystem(int diskBlocks) {
+    public FileSystem(int diskBlocks, Cache cache) {
+        this(diskBlocks, cache, null);
+    }
+
+    public FileSystem(int diskBlocks, Cache cache, ReadAhead readAhead) {
+        this.cache = cache;
+        this.readAhead = readAhead;
 
         // initializes the superblock, directory, and filetable
-        superblock = new SuperBlock(diskBlocks);
+        superblock = new SuperBlock(diskBlocks, cache);
         directory = new Directory(superblock.totalInodes);
-        filetable = new FileTable(directory);
+        inodes = new InodeTable(cache, IN_CORE_INODES, superblock.extents());
+        filetable = new FileTable(directory, inodes);
 
         // read the "/" file from disk
         FileTableEntry dirEnt = open("/", "r");
@@ -34,26 +58,62 @@ public class FileSystem {
 
     // sync the file system
     public void sync() {
-        // open the root file in writing mode
-        FileTableEntry entry = open("/", "w");
-        
-        // write the entry to directory
-        write(entry, directory.directory2bytes());
+        // open the root file for writing in place
+        FileTableEntry entry = open("/", "w+");
+
+        // the slots changed since the last sync
+        int[] slots = directory.takeDirty();
+
+        if (fsize(entry) != directory.bytes()) {
+            // a fresh directory file, write the entry to directory
+            write(entry, directory.directory2bytes());
+        } else {
+            // patch only the changed slots, a run of consecutive slots at
+            // a time, in both the fsizes and the names part of the file
+            for (int i = 0; i < slots.length; ) {
+                int from = slots[i];
+                int to = from + 1;
+                while (++i < slots.length && slots[i] == to) {
+                    to++;
+                }
+                byte[] sizes = new byte[directory.sizesOffset(to) - directory.sizesOffset(from)];
+                directory.sizes2bytes(from, to, sizes, 0);
+                seek(entry, directory.sizesOffset(from), 0);
+                write(entry, sizes);
+
+                byte[] names = new byte[directory.namesOffset(to) - directory.namesOffset(from)];
+                directory.names2bytes(from, to, names, 0);
+                seek(entry, directory.namesOffset(from), 0);
+                write(entry, names);
+            }
+        }
         
         // close the entry
         close(entry);
+
+        // write back the inodes still open
+        inodes.sync();
         
         // sync the superblock
         superblock.sync();
+
+        // write every dirty block back to disk
+        cache.sync();
     }
 
     // format all files in the directory
     public int format(int files){
-        superblock.format(files); // call superblock's format 
+        return format(files, 0);
+    }
+
+    // format with the layout options given as SuperBlock.FORMAT_ bits
+    public int format(int files, int options){
+        superblock.format(files, options); // call superblock's format 
 
         // reestablish table and directory to reformat all files
         directory = new Directory(superblock.totalInodes);
-        filetable = new FileTable(directory);
+        inodes = new InodeTable(cache, IN_CORE_INODES, superblock.extents());
+        filetable = new FileTable(directory, inodes);
 
         // return OK signal to caller
         return 0;
@@ -63,8 +123,14 @@ public class FileSystem {
     // return the created entry
     public FileTableEntry open(String fileName, String mode) {
         FileTableEntry entry = filetable.falloc(fileName, mode);
+        // no such file, or no directory to create it in
+        if (entry == null) {
+            return null;
+        }
         if (mode.equals("w")) {
             if (deallocAllBlocks(entry) == false) {
+                // let go of the entry, or the file stays open for good
+                filetable.ffree(entry);
                 return null;
             } 
         }
@@ -88,52 +154,68 @@ public class FileSystem {
         int fileSize  = fsize(entry);
 
         synchronized(entry) {
-            // while we haven't read everything
-            while (bufferLength > 0 && entry.seekPtr < fileSize) {
+            // a read that picks up where the last one stopped is sequential
+            boolean sequential = (entry.seekPtr == entry.raNext);
 
-                // search for data target 
-                int target = entry.inode.findTargetBlock(entry.seekPtr);
-                // if target file is invalid for any reason, leave 
-                if (target == -1) {
-                    break;
-                }
+            // what length of the file can we read
+            int readableLength = Math.min(bufferLength, fileSize - entry.seekPtr);
 
-                // create new buffer array to be read into
-                byte[] blockData = new byte[Disk.blockSize];
-                
-                // read data from target into newly created buffer array
-                SysLib.rawread(target, blockData);
+            // the physical runs holding that part of the file, as
+            // (start block, # blocks) pairs
+            int[] runs = entry.inode.findRuns(entry.seekPtr, readableLength);
 
-                // where to offset in the block based on the seekptr
+            // read each run with a single request
+            for (int i = 0; i < runs.length; i += 2) {
+
+                // where to offset in the first block based on the seekptr
                 int offset = entry.seekPtr % Disk.blockSize;
 
-                // what length of the block can we read
-                int readableBlockLength = Disk.blockSize - offset;
-
-                // what length of the file can we read
-                int readableFileLength = fileSize - entry.seekPtr;
-                
-                // double check the buffer to read into isn't bigger than the block or the file
-                int readableLength = Math.min(Math.min(readableBlockLength, bufferLength), readableFileLength);
-
-                // read from block into buffer
-                System.arraycopy(blockData, offset, buffer, index, readableLength);
-                
-                // update seekPtr now that we've read that length
-                entry.seekPtr += readableLength;
-
-                // update bufferIndex now that we've read that length
-                index += readableLength;
-                
-                // update bufferLength now that we've read that length
-                bufferLength -= readableLength;
+                // what length of the run can we read
+                int runLength = Math.min(runs[i + 1] * Disk.blockSize - offset, readableLength - index);
+
+                // read from the run into buffer
+                cache.readRun(runs[i], offset, buffer, index, runLength, blockClass(entry));
+
+                // update seekPtr and bufferIndex now that we've read that length
+                entry.seekPtr += runLength;
+                index += runLength;
             }
 
+            // queue the blocks this reader is likely to want next
+            entry.raNext = entry.seekPtr;
+            readAhead(entry, sequential, fileSize);
+
             // return location of seek pointer 
             return index;
         }
     }
 
+    // adapt entry's read-ahead window and prefetch the blocks it now covers.
+    // The window doubles on every sequential read, up to the ReadAhead
+    // maximum, and collapses as soon as a read does not continue the last one.
+    private void readAhead(FileTableEntry entry, boolean sequential, int fileSize) {
+        if (readAhead == null) {
+            return;
+        }
+        int block = (entry.seekPtr + Disk.blockSize - 1) / Disk.blockSize;
+        if (!sequential) {
+            entry.raWindow = 0;
+            entry.raLimit = block;
+            return;
+        }
+        entry.raWindow = Math.min(Math.max(MIN_READ_AHEAD, entry.raWindow * 2), readAhead.maxWindow());
+
+        // only ask for blocks not already requested by an earlier read
+        int end = Math.min(block + entry.raWindow, (fileSize + Disk.blockSize - 1) / Disk.blockSize);
+        for (int i = Math.max(block, entry.raLimit); i < end; i++) {
+            int target = entry.inode.findTargetBlock(i * Disk.blockSize);
+            if (target == -1 || !readAhead.request(target)) {
+                break;
+            }
+            entry.raLimit = i + 1;
+        }
+    }
+
     // write from a buffer into a FileTableEntry
     public int write(FileTableEntry entry, byte[] buffer) {
         // if we're not in write mode cancel operation and return error code of -1
@@ -144,81 +226,106 @@ public class FileSystem {
         synchronized(entry) {
             int index = 0;
             int bufferLength = buffer.length;
-            // while we havent written anything
-            while (bufferLength > 0) {
-                // find where we're going to write
-                int target = entry.inode.findTargetBlock(entry.seekPtr);
-                // create and register a new free block as the target block
-                // if target is nonexistent/invalid
-                if (target == -1) {
-
-                    // get free block
-                    short freeBlock = (short) superblock.getFreeBlock();
-
-                    // attempt to write it into free block 
-                    int attempt = entry.inode.registerTargetBlock(entry.seekPtr, freeBlock);
-
-                    // if it doesn't work, panick on write 
-                    switch (attempt) {
-                        case -2:
-                            // same thing as case -1
-                        case -1:
-                            SysLib.cerr("panicking on write\n");
-                            return -1;
-                        case -3:
-                            if (!(entry.inode.registerIndexBlock((short)superblock.getFreeBlock()))) {
-                                SysLib.cerr("panicking on write\n");
-                                return -1;
-                            }
-                            if (entry.inode.registerTargetBlock(entry.seekPtr, freeBlock) != 0) {
-                                SysLib.cerr("panicking on write\n");
-                                return -1;
-                            }
-                            break;
+
+            // register a new free block for every block the write covers
+            // that the file does not have yet. They come from the entry's
+            // pool, which is refilled with a run as close after the file's
+            // last block as possible.
+            int end = entry.seekPtr + bufferLength;
+            for (int offset = entry.seekPtr; offset < end; offset += Disk.blockSize - offset % Disk.blockSize) {
+                if (entry.inode.findTargetBlock(offset) != -1) {
+                    continue;
+                }
+                if (entry.poolLeft == 0) {
+                    int goal = -1;
+                    if (offset >= Disk.blockSize) {
+                        goal = entry.inode.findTargetBlock(offset - Disk.blockSize) + 1;
+                    }
+                    int blocks = (end - 1) / Disk.blockSize - offset / Disk.blockSize + 1;
+                    int[] run = superblock.getFreeRun(goal, Math.max(blocks, POOL_BLOCKS));
+                    // the disk is full
+                    if (run == null) {
+                        SysLib.cerr("panicking on write\n");
+                        entry.inode.dirty = true;
+                        return -1;
                     }
-                    // target is now set to the new written block
-                    target = freeBlock;
+                    entry.poolNext = run[0];
+                    entry.poolLeft = run[1];
                 }
+                if (registerBlock(entry, offset, (short)entry.poolNext) == -1) {
+                    // the blocks registered so far stay with the file
+                    entry.inode.dirty = true;
+                    return -1;
+                }
+                entry.poolNext++;
+                entry.poolLeft--;
+            }
 
-                // create buffer in blockData
-                byte[] blockData = new byte[Disk.blockSize];
+            // the physical runs now holding the whole range, as
+            // (start block, # blocks) pairs
+            int[] runs = entry.inode.findRuns(entry.seekPtr, bufferLength);
 
-                // if it's empty, exit
-                if (SysLib.rawread(target, blockData) == -1) {
-                    System.exit(2);
-                }
+            // write each run with a single request
+            for (int i = 0; i < runs.length; i += 2) {
 
                 // move offset by the block size
                 int offset = entry.seekPtr % Disk.blockSize;
 
-                // calculate minimum writable length between buffer and blocksize - offset #
-                int writableLength = Math.min(Disk.blockSize - offset, bufferLength);
-
-                // copy data between arrays
-                System.arraycopy(buffer, index, blockData, offset, writableLength);
+                // calculate minimum writable length between buffer and run - offset #
+                int writableLength = Math.min(runs[i + 1] * Disk.blockSize - offset, bufferLength);
 
-                // write the buffer into the target
-                SysLib.rawwrite(target, blockData);
+                // patch the buffer into the run in the cache. Blocks the
+                // write covers entirely never read the old contents.
+                // if it fails, exit
+                if (!cache.writeRun(runs[i], offset, buffer, index, writableLength, blockClass(entry))) {
+                    System.exit(2);
+                }
 
                 // update pointers
                 entry.seekPtr += writableLength;
                 index += writableLength;
                 bufferLength -= writableLength;
+            }
 
-                // boundary check to ensure pointer is within inode bounds
-                if (entry.seekPtr > entry.inode.length) {
-                    entry.inode.length = entry.seekPtr;
-                }
+            // boundary check to ensure pointer is within inode bounds
+            if (entry.seekPtr > entry.inode.length) {
+                entry.inode.length = entry.seekPtr;
             }
-            // write the inode to the disk
-            entry.inode.toDisk(entry.iNumber);
+
+            // the inode goes back to disk when the file is closed
+            entry.inode.dirty = true;
 
             // return location of seek pointer
             return index;
         }
-        
-        
-        
+    }
+
+    // register the free block freeBlock as the block of entry's file that
+    // includes offset. Returns the block, or -1 if it could not be registered.
+    private int registerBlock(FileTableEntry entry, int offset, short freeBlock) {
+        // attempt to write it into free block 
+        int attempt = entry.inode.registerTargetBlock(offset, freeBlock);
+
+        // if it doesn't work, panick on write 
+        switch (attempt) {
+            case -2:
+                // same thing as case -1
+            case -1:
+                SysLib.cerr("panicking on write\n");
+                return -1;
+            case -3:
+                if (!(entry.inode.registerIndexBlock((short)superblock.getFreeBlock()))) {
+                    SysLib.cerr("panicking on write\n");
+                    return -1;
+                }
+                if (entry.inode.registerTargetBlock(offset, freeBlock) != 0) {
+                    SysLib.cerr("panicking on write\n");
+                    return -1;
+                }
+                break;
+        }
+        // the new block is registered
+        return freeBlock;
     }
 
     // sets the seek pointer to a position specified by offset and whence
@@ -260,6 +367,12 @@ public class FileSystem {
             if (entry.seekPtr > entry.inode.length) {
                 entry.seekPtr = entry.inode.length;
             }
+            // anywhere but where the last read stopped is a random seek,
+            // which collapses the read-ahead window on the next read
+            if (entry.seekPtr != entry.raNext) {
+                entry.raNext = -1;
+            }
+
             // In both cases, you should return success.
             return entry.seekPtr;
         }
@@ -273,6 +386,12 @@ public class FileSystem {
             if (entry.count > 0) {
                 return true;
             }
+
+            // give back the blocks reserved for writing and not used
+            if (entry.poolLeft > 0) {
+                superblock.returnRun(entry.poolNext, entry.poolLeft);
+                entry.poolLeft = 0;
+            }
         }
         return filetable.ffree(entry);
     }
@@ -280,12 +399,41 @@ public class FileSystem {
     // delete a file (closes the file entry and frees its inumber from directory)
     public boolean delete(String fileName) {
         FileTableEntry entry = open(fileName, "w");
+        // no such file, or a directory, which rmdir removes
+        if (entry == null) {
+            return false;
+        }
         short iNumber = entry.iNumber;
         // return whether we successfully closed the file and freed it from directory
         return (close(entry) && directory.ifree(iNumber));
     }
 
 
+    // make a directory at path, whose parent directory must exist
+    public boolean mkdir(String path) {
+        short iNumber = directory.ialloc(path, Directory.DIRECTORY);
+        if (iNumber < 0) {
+            return false;
+        }
+        // its entries live in the directory table, the inode stays empty
+        Inode inode = inodes.ialloc(iNumber);
+        inode.flag = 0;
+        inodes.iput(iNumber, inode);
+        return true;
+    }
+
+    // remove the directory at path, which has to be empty
+    public boolean rmdir(String path) {
+        short iNumber = directory.namei(path);
+        return iNumber > 0 && directory.isDirectory(iNumber) && directory.ifree(iNumber);
+    }
+
+    // add the names in the directory at path to names, return how many or
+    // -1 if there is no such directory
+    public int readdir(String path, Vector<String> names) {
+        return directory.readdir(path, names);
+    }
+
     // get the size of the passed FileTableEntry
     public int fsize(FileTableEntry entry) {
         synchronized(entry) {
@@ -293,6 +441,30 @@ public class FileSystem {
         }
     }
     
+    // add the file-system I/O counters to stats
+    public void stats(IOStats stats) {
+        superblock.stats(stats);
+        Inode.stats(stats);
+    }
+
+    public void resetStats() {
+        superblock.resetStats();
+        Inode.resetStats();
+    }
+
+    // the # physical runs entry's file is split into, 1 for a file that is
+    // stored contiguously and 0 for an empty one
+    public int fragments(FileTableEntry entry) {
+        synchronized(entry) {
+            return entry.inode.findRuns(0, entry.inode.length).length / 2;
+        }
+    }
+
+    // the IOStats class of the blocks of entry's file
+    private int blockClass(FileTableEntry entry) {
+        return entry.iNumber == 0 ? IOStats.DIRECTORY : IOStats.DATA;
+    }
+
     // private method - not used in any other external classes
     private boolean deallocAllBlocks(FileTableEntry entry){
         // make sure there's actually an entry to deallocate
@@ -300,40 +472,28 @@ public class FileSystem {
             return false;
         }
 
-        // unregister the entry's index block
-        byte[] unregisteredBlock = entry.inode.unregisterIndexBlock();
-        
-        // make sure there's actually an unregistered block
-        if (unregisteredBlock != null) {
-
-            // variable to save it into
-            short unregisteredBlockInShort;
-
-            // return unregistered index
-            while (true){
-                unregisteredBlockInShort = SysLib.bytes2short(unregisteredBlock, 0);
-                if (unregisteredBlockInShort == -1){
-                    break;
-                }else{
-                    superblock.returnBlock((int)unregisteredBlockInShort);
-                }   
-            }
-        }
-        
-        // return all blocks to the superblock
-        int i = 0;
+        // return every block of the file to the superblock, a run of
+        // contiguous blocks at a time
         Inode iNode = entry.inode;
+        int offset = 0;
+        int target;
+        while ((target = iNode.findTargetBlock(offset)) != -1) {
+            int run = iNode.findRun(offset);
+            superblock.returnRun(target, run);
+            offset += run * Disk.blockSize;
+        }
 
-        // return all valid blocks 
-        while (i < Inode.directSize) {
-            if (iNode.direct[i] != -1) {
-                superblock.returnBlock((int)iNode.direct[i]);
-                iNode.direct[i] = -1;
-            }
-            i++;
+        // then forget them, and free the index block too
+        int indexBlock = iNode.unregisterAllBlocks();
+        if (indexBlock != -1) {
+            superblock.returnBlock(indexBlock);
         }
-        // write back to disk
-        entry.inode.toDisk(entry.iNumber);
+
+        // the file is empty again
+        iNode.length = 0;
+
+        // written back to disk on close
+        entry.inode.dirty = true;
         return true;
     }
 }
\ No newline at end of file
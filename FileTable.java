@@ -12,10 +12,12 @@ public class FileTable {
  
       private Vector<FileTableEntry> table;        // the actual entity of this file table 
       private Directory dir;       // the root directory  
+      private InodeTable inodes;   // the in-core inodes shared by all entries
  
-    public FileTable( Directory directory ) { // constructor 
+    public FileTable( Directory directory, InodeTable inodeTable ) { // constructor 
         table = new Vector<FileTableEntry>();     // instantiate a file (structure) table 
         dir = directory;           // receive a reference to the Directory 
+        inodes = inodeTable;       // and the inode table 
     }                            // from the file system 
  
       // major public methods 
@@ -23,7 +25,7 @@ public class FileTable {
         // allocate a new file (structure) table entry for this file name 
         // allocate/retrieve and register the corresponding inode using dir 
         // increment this inode's count 
-        // immediately write back this inode to the disk 
+        // the inode is written back once its last entry is freed, if it changed 
         // return a reference to this file (structure) table entry
         short iNumber;
         Inode iNode;
@@ -35,7 +37,11 @@ public class FileTable {
                 iNumber = dir.namei(fileName);
             }
             if (iNumber >= 0) {
-                iNode = new Inode(iNumber);
+                // a subdirectory has no contents to open
+                if (iNumber != 0 && dir.isDirectory(iNumber)) {
+                    return null;
+                }
+                iNode = inodes.iget(iNumber);
                 // if in reading mode
                 if (mode.equals("r")) {
                     // if used or unused 
@@ -43,6 +49,7 @@ public class FileTable {
                         iNode.flag = 1;
                         break;
                     }
+                    inodes.iput(iNumber, iNode);
                     try {
                         wait();
                     } catch (InterruptedException ex) {
@@ -62,8 +69,8 @@ public class FileTable {
                     if (iNode.flag == 2) {
                         iNode.flag = 5;
                     }
-                    // allocate iNumber to current INode
-                    iNode.toDisk(iNumber);
+                    // the flag keeps new readers out while we wait
+                    inodes.iput(iNumber, iNode);
                     try {
                         // wait for section to be finished
                         wait(); 
@@ -75,7 +82,11 @@ public class FileTable {
                 // if the mode is not read, allocate new node and set the flag to used in !r
                 if (!(mode.equals("r"))) {
                     iNumber = dir.ialloc(fileName);
-                    iNode = new Inode();
+                    // its directory does not exist
+                    if (iNumber < 0) {
+                        return null;
+                    }
+                    iNode = inodes.ialloc(iNumber);
                     iNode.flag = 2;
                     break;
                 }else {
@@ -86,9 +97,6 @@ public class FileTable {
         }
         // increment inode count
         iNode.count++;
-
-        // write the inode back to disk
-        iNode.toDisk(iNumber);
         
         // make a new FileTableEntry and add to table
         FileTableEntry entry = new FileTableEntry(iNode, iNumber, mode);
@@ -106,17 +114,24 @@ public class FileTable {
             // fetch flag from entry for comparison
             short entryFlag = entry.inode.flag;
             
-            // r used or !r used --> unused
-            if (entryFlag == 1 || entryFlag == 2) {
-                entry.inode.flag = 0;
-            // wreg used or wreg !used --> wreg unused 
-            } else if (entryFlag == 4 || entryFlag == 5) {
-                entry.inode.flag = 3;
+            // the inode is shared, it stays in use until its last entry goes
+            if (entry.inode.count == 0) {
+                // r used or !r used --> unused
+                if (entryFlag == 1 || entryFlag == 2) {
+                    entry.inode.flag = 0;
+                // wreg used or wreg !used --> wreg unused 
+                } else if (entryFlag == 4 || entryFlag == 5) {
+                    entry.inode.flag = 3;
+                }
             }
             
-            // save the corresponding inode to the disk 
-            entry.inode.toDisk(entry.iNumber);
-            notify();
+            // drop the entry's reference, which saves the inode to the
+            // disk if it was the last one and it changed
+            if (entry.inode.stateChanged()) {
+                entry.inode.dirty = true;
+            }
+            inodes.iput(entry.iNumber, entry.inode);
+            notifyAll();
             isFound = true;
         }
         
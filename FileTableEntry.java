@@ -10,6 +10,11 @@ public class FileTableEntry {          // Each table entry should have
       public final short iNumber;         //    this inode number 
       public int count;                   //    # threads sharing this entry 
       public final String mode;           //    "r", "w", "w+", or "a" 
+      public int raNext;                  //    where a sequential read would go on 
+      public int raWindow;                //    # blocks to read ahead 
+      public int raLimit;                 //    block index read-ahead has reached 
+      public int poolNext;                //    next free block reserved for this writer 
+      public int poolLeft;                //    # blocks reserved from poolNext on 
     
       public FileTableEntry ( Inode i, short inumber, String m ) { 
         seekPtr = 0;                      // the seek pointer is set to the file top 
@@ -19,5 +24,10 @@ public class FileTableEntry {          // Each table entry should have
         mode = m;                         // once access mode is set, it never changes
         if ( mode.compareTo( "a" ) == 0 ) // if mode is append, 
             seekPtr = inode.length;       // seekPtr points to the end of file 
+        raNext = seekPtr;                 // a first read from here counts as sequential 
+        raWindow = 0; 
+        raLimit = 0; 
+        poolNext = -1; 
+        poolLeft = 0; 
       } 
 } 
\ No newline at end of file
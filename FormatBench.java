@@ -0,0 +1,80 @@
+// ThreadOS program that times SuperBlock.format with each free-space
+// layout on disks of 250, 500 and 1000 blocks, counting the format and
+// the Cache.sync that puts it on disk, and the blocks that sync writes.
+//
+// WARNING: this overwrites the whole disk. When it is done the disk is
+// formatted again through SysLib.format with 64 files, so every file on
+// it is lost.
+//
+// Usage from the ThreadOS shell: l FormatBench [rounds]
+
+import java.util.*;
+
+public class FormatBench extends Thread {
+    private static final int[] SIZES = { 250, 500, 1000 };
+    private static final int[] OPTIONS = {
+        0,
+        SuperBlock.FORMAT_LAZY,
+        SuperBlock.FORMAT_BITMAP,
+        SuperBlock.FORMAT_BITMAP | SuperBlock.FORMAT_LAZY
+    };
+    private static final String[] NAMES = {
+        "free list", "lazy", "bitmap", "bitmap, lazy"
+    };
+    private static final int FILES = 64;
+    private static final int BLOCKS = 1000;     // the ThreadOS disk
+
+    private int rounds = 10;
+
+    public FormatBench( ) {
+        this( new String[0] );
+    }
+
+    public FormatBench( String args[] ) {
+        if ( args.length > 0 )
+            rounds = Integer.parseInt( args[0] );
+    }
+
+    public void run( ) {
+        // nothing left in the kernel cache to write back over the formats
+        SysLib.csync( );
+
+        SysLib.cout( "FormatBench: " + FILES + " files, best of " + rounds +
+                     " rounds\n" );
+        SysLib.cout( "blocks  layout        format+sync (us)  blocks written\n" );
+        for ( int s = 0; s < SIZES.length; s++ ) {
+            for ( int o = 0; o < OPTIONS.length; o++ ) {
+                long best = Long.MAX_VALUE;
+                int written = 0;
+                for ( int r = 0; r < rounds; r++ ) {
+                    // a cache of its own, in one stripe, that holds the
+                    // whole disk, so every block the format touches is
+                    // written by the sync
+                    Cache cache = new Cache( Disk.blockSize, BLOCKS, false, 1, "clock" );
+                    SuperBlock superblock = new SuperBlock( SIZES[s], cache );
+                    cache.sync( );
+                    long start = System.nanoTime( );
+                    superblock.format( FILES, OPTIONS[o] );
+                    written = cache.dirtyPages( );
+                    cache.sync( );
+                    best = Math.min( best, System.nanoTime( ) - start );
+                }
+                SysLib.cout( pad( "" + SIZES[s], 6, false ) + "  " +
+                             pad( NAMES[o], 12, true ) +
+                             pad( "" + best / 1000, 18, false ) +
+                             pad( "" + written, 16, false ) + "\n" );
+            }
+        }
+
+        // put a file system the kernel knows about back on the disk
+        SysLib.format( FILES );
+        SysLib.csync( );
+        SysLib.exit( );
+    }
+
+    private static String pad( String s, int width, boolean left ) {
+        while ( s.length( ) < width )
+            s = left ? s + " " : " " + s;
+        return s;
+    }
+}
@@ -0,0 +1,108 @@
+// A fixed pool of slots, each of which sits on at most one of a few doubly
+// linked lists. Eviction policies use it to keep frames (or remembered
+// block IDs) in recency order with O(1) moves and no allocation.
+// The head of a list is its most recently used end, the tail its least.
+
+class FrameLists {
+
+    // "no slot" marker, also listOf() for a slot that is on no list
+    public static final int NONE = -1;
+
+    private int[] prev;
+    private int[] next;
+    private int[] list;    // which list each slot is on
+    private int[] heads;
+    private int[] tails;
+    private int[] sizes;
+
+    public FrameLists(int slots, int lists) {
+        prev = new int[slots];
+        next = new int[slots];
+        list = new int[slots];
+        heads = new int[lists];
+        tails = new int[lists];
+        sizes = new int[lists];
+        clear();
+    }
+
+    public void clear() {
+        for (int i = 0; i < list.length; i++) {
+            prev[i] = next[i] = list[i] = NONE;
+        }
+        for (int l = 0; l < heads.length; l++) {
+            heads[l] = tails[l] = NONE;
+            sizes[l] = 0;
+        }
+    }
+
+    public int listOf(int slot) {
+        return list[slot];
+    }
+
+    public int size(int l) {
+        return sizes[l];
+    }
+
+    public int head(int l) {
+        return heads[l];
+    }
+
+    public int tail(int l) {
+        return tails[l];
+    }
+
+    // the slot after this one, walking from head to tail
+    public int next(int slot) {
+        return next[slot];
+    }
+
+    // take slot off whatever list it is on
+    public void remove(int slot) {
+        int l = list[slot];
+        if (l == NONE) {
+            return;
+        }
+        if (prev[slot] != NONE) {
+            next[prev[slot]] = next[slot];
+        } else {
+            heads[l] = next[slot];
+        }
+        if (next[slot] != NONE) {
+            prev[next[slot]] = prev[slot];
+        } else {
+            tails[l] = prev[slot];
+        }
+        prev[slot] = next[slot] = list[slot] = NONE;
+        sizes[l]--;
+    }
+
+    // move slot to the most recently used end of list l
+    public void pushHead(int l, int slot) {
+        remove(slot);
+        prev[slot] = NONE;
+        next[slot] = heads[l];
+        if (heads[l] != NONE) {
+            prev[heads[l]] = slot;
+        } else {
+            tails[l] = slot;
+        }
+        heads[l] = slot;
+        list[slot] = l;
+        sizes[l]++;
+    }
+
+    // move slot to the least recently used end of list l
+    public void pushTail(int l, int slot) {
+        remove(slot);
+        next[slot] = NONE;
+        prev[slot] = tails[l];
+        if (tails[l] != NONE) {
+            next[tails[l]] = slot;
+        } else {
+            heads[l] = slot;
+        }
+        tails[l] = slot;
+        list[slot] = l;
+        sizes[l]++;
+    }
+}
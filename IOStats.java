@@ -0,0 +1,69 @@
+// Snapshot of the block cache and file-system I/O counters, returned by
+// SysLib.stats( ). Cache hits and misses are broken down by the kind of
+// block that was asked for, so misses can be traced back to metadata or
+// to file data.
+
+public class IOStats {
+    // block classes
+    public final static int SUPER     = 0; // the superblock
+    public final static int INODE     = 1; // inode blocks
+    public final static int INDEX     = 2; // indirect index blocks
+    public final static int DIRECTORY = 3; // blocks of the "/" file
+    public final static int DATA      = 4; // blocks of all other files
+    public final static int FREE      = 5; // free-space bookkeeping
+    public final static int OTHER     = 6; // cread/cwrite from user threads
+    public final static int CLASSES   = 7;
+
+    public final static String[] CLASS_NAMES =
+        { "super", "inode", "index", "directory", "data", "free", "other" };
+
+    // Cache
+    public long[] hits = new long[CLASSES];   // requests served from the cache
+    public long[] misses = new long[CLASSES]; // requests that went to disk
+    public long evictions;      // victims that replaced a valid block
+    public long writeBacks;     // dirty pages written to disk, for any reason
+    public long syncWriteBacks; // evictions that had to write a dirty victim
+    public long syncs;          // Cache.sync( ) and Cache.flush( ) calls
+    public long prefetches;     // blocks loaded by read-ahead
+
+    // SuperBlock
+    public long allocations;    // blocks handed out by getFreeBlock
+    public long frees;          // blocks given back by returnBlock
+
+    // Inode
+    public long inodeReads;     // inode block reads
+    public long inodeWrites;    // inode block writes
+    public long indexReads;     // index block reads
+    public long indexWrites;    // index block writes
+
+    public long hits( ) {
+        long total = 0;
+        for ( int i = 0; i < CLASSES; i++ )
+            total += hits[i];
+        return total;
+    }
+
+    public long misses( ) {
+        long total = 0;
+        for ( int i = 0; i < CLASSES; i++ )
+            total += misses[i];
+        return total;
+    }
+
+    public String toString( ) {
+        StringBuffer s = new StringBuffer( );
+        s.append( "cache: hits=" + hits( ) + " misses=" + misses( ) +
+                  " evictions=" + evictions + " writeBacks=" + writeBacks +
+                  " syncWriteBacks=" + syncWriteBacks + " syncs=" + syncs +
+                  " prefetches=" + prefetches + "\n" );
+        for ( int i = 0; i < CLASSES; i++ )
+            s.append( "  " + CLASS_NAMES[i] + ": hits=" + hits[i] +
+                      " misses=" + misses[i] + "\n" );
+        s.append( "superblock: allocations=" + allocations +
+                  " frees=" + frees + "\n" );
+        s.append( "inode: reads=" + inodeReads + " writes=" + inodeWrites +
+                  " indexReads=" + indexReads +
+                  " indexWrites=" + indexWrites + "\n" );
+        return s.toString( );
+    }
+}
@@ -4,15 +4,32 @@
 * Class: CSS430
 */
 
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
 public class Inode {
     public final static int iNodeSize = 32;  // fixed to 32 bytes
     public final static int directSize = 11; // # direct pointers
+    public final static int inodesPerBlock = Disk.blockSize / iNodeSize;
+    public final static int indexSize = Disk.blockSize / 2; // # pointers in an index block
+
+    // an extent-mapped inode keeps (start block, # blocks) runs instead of
+    // block pointers: the first ones in direct[], the rest in an extent
+    // block that indirect points to
+    public final static int inodeExtents = directSize / 2;  // # extents in direct[]
+    public final static int indexExtents = indexSize / 2;   // # extents in an extent block
 
     public final static int NoError              = 0;
     public final static int ErrorBlockRegistered = -1;
     public final static int ErrorPrecBlockUnused = -2;
     public final static int ErrorIndirectNull    = -3;
 
+    // I/O statistics over all inodes, see IOStats
+    private static LongAdder inodeReads = new LongAdder( );
+    private static LongAdder inodeWrites = new LongAdder( );
+    private static LongAdder indexReads = new LongAdder( );
+    private static LongAdder indexWrites = new LongAdder( );
+
     public int length;                 // file size in bytes
     public short count;                // # file-table entries pointing to this
     public short flag;       // 0 = unused, 1 = used(r), 2 = used(!r), 
@@ -20,7 +37,27 @@ public class Inode {
     public short direct[] = new short[directSize]; // directo pointers
     public short indirect;                         // an indirect pointer
 
-    Inode ( ) {                        // a default constructor
+    int refs;                                      // # in-core references, see InodeTable
+    boolean dirty;                                 // changed since last written back
+    private short diskCount;                       // count and flag as last read
+    private short diskFlag;                        // or written back
+
+    // the block map is changed and written back under the inode's lock:
+    // InodeTable may write back an inode another thread is writing to
+
+    private short index[];                         // the index block, null until read
+    private boolean indexDirty;                    // index changed since last written back
+
+    private boolean extents;                       // extent-mapped, see SuperBlock.FORMAT_EXTENTS
+    private Cache cache;                           // block cache backing the disk
+
+    Inode ( Cache cache ) {            // a default constructor
+        this( cache, false );
+    }
+
+    Inode ( Cache cache, boolean extents ) {       // an empty inode of either layout
+        this.cache = cache;
+        this.extents = extents;
     	length = 0;
     	count = 0;
     	flag = 1;
@@ -30,11 +67,18 @@ public class Inode {
     	indirect = -1;
     }
 
-    Inode ( short iNumber ) {                      // making inode from disk
-    	int blkNumber = 1 + iNumber / 16;          // inodes start from block#1
+    Inode ( short iNumber, Cache cache ) {         // making inode from disk
+        this( iNumber, cache, false );
+    }
+
+    Inode ( short iNumber, Cache cache, boolean extents ) {
+        this.cache = cache;
+        this.extents = extents;
+    	int blkNumber = blockOf( iNumber );
     	byte[] data = new byte[Disk.blockSize]; 
-    	SysLib.rawread( blkNumber, data );         // get the inode block
-    	int offset = ( iNumber % 16 ) * iNodeSize; // locate the inode top
+    	cache.read( blkNumber, data, IOStats.INODE ); // get the inode block
+    	inodeReads.increment( );
+    	int offset = ( iNumber % inodesPerBlock ) * iNodeSize; // locate the inode top
     
     	length = SysLib.bytes2int( data, offset ); // retrieve all data members
     	offset += 4;                               // from data
@@ -42,6 +86,8 @@ public class Inode {
     	offset += 2;
     	flag = SysLib.bytes2short( data, offset );
     	offset += 2;
+    	diskCount = count;
+    	diskFlag = flag;
     	for ( int i = 0; i < directSize; i++ ) {
     	    direct[i] = SysLib.bytes2short( data, offset );
     	    offset += 2;
@@ -59,31 +105,43 @@ public class Inode {
     	*/
     }
 
-    void toDisk( short iNumber ) {                 // saving this inode to disk
-    	byte[] iData = new byte[iNodeSize];
-    	int offset = 0;
-    
-    	SysLib.int2bytes( length, iData, offset ); // save all data members in
-    	offset += 4;                               // iData
-    	SysLib.short2bytes( count, iData, offset );
+    // whether count or flag differ from the copy on disk
+    boolean stateChanged( ) {
+    	return count != diskCount || flag != diskFlag;
+    }
+
+    static int blockOf( short iNumber ) {          // the block holding iNumber
+    	return 1 + iNumber / inodesPerBlock;       // inodes start from block#1
+    }
+
+    void toBytes( byte[] data, int offset ) {      // save all data members in
+    	SysLib.int2bytes( length, data, offset );  // data at offset
+    	offset += 4;
+    	SysLib.short2bytes( count, data, offset );
     	offset += 2;
-    	SysLib.short2bytes( flag, iData, offset );
+    	SysLib.short2bytes( flag, data, offset );
     	offset += 2;
+    	diskCount = count;
+    	diskFlag = flag;
     	for ( int i = 0; i < directSize; i++ ) {
-    	    SysLib.short2bytes( direct[i], iData, offset );
+    	    SysLib.short2bytes( direct[i], data, offset );
     	    offset += 2;
     	}
-    	SysLib.short2bytes( indirect, iData, offset );
-    	offset += 2;
+    	SysLib.short2bytes( indirect, data, offset );
+    }
+
+    synchronized void toDisk( short iNumber ) {    // saving this inode to disk
+    	syncIndex( );                              // and its index block
+    	byte[] iData = new byte[iNodeSize];
+    	toBytes( iData, 0 );
     
-    	int blkNumber = 1 + iNumber / 16;          // inodes start from block#1
-    	byte[] blkData = new byte[Disk.blockSize]; 
-    	SysLib.rawread( blkNumber, blkData );      // get the inode block
-    	offset = ( iNumber % 16 ) * iNodeSize;     // locate the inode top
+    	int blkNumber = blockOf( iNumber );
+    	int offset = ( iNumber % inodesPerBlock ) * iNodeSize; // locate the inode top
     
-            // reflect the inode data to the block, and then write back to the disk
-    	System.arraycopy( iData, 0, blkData, offset, iNodeSize );
-    	SysLib.rawwrite( blkNumber, blkData );
+            // reflect the inode data to the block in the cache, which writes
+            // it back to the disk later
+    	cache.write( blkNumber, offset, iData, 0, iNodeSize, IOStats.INODE );
+    	inodeWrites.increment( );
     
     	/*
     	System.out.println( "Inode[" + iNumber + "]: written back " +
@@ -95,29 +153,89 @@ public class Inode {
     	*/
     }
 
+    // save count inodes sharing one inode block with a single block write.
+    // The other inodes of the block are left as they are.
+    static void toDisk( Cache cache, short[] iNumbers, Inode[] inodes, int count ) {
+    	if ( count == 1 ) {                        // a single inode is patched in
+    	    inodes[0].toDisk( iNumbers[0] );
+    	    return;
+    	}
+    	int blkNumber = blockOf( iNumbers[0] );
+    	byte[] data = new byte[Disk.blockSize];
+    	if ( count < inodesPerBlock ) {            // keep the untouched inodes
+    	    cache.read( blkNumber, data, IOStats.INODE );
+    	    inodeReads.increment( );
+    	}
+    	for ( int i = 0; i < count; i++ ) {
+    	    synchronized ( inodes[i] ) {           // others may be writing to it
+    	        inodes[i].syncIndex( );
+    	        inodes[i].toBytes( data, ( iNumbers[i] % inodesPerBlock ) * iNodeSize );
+    	    }
+        }
+    	cache.write( blkNumber, data, IOStats.INODE );
+    	inodeWrites.increment( );
+    }
+
+    // write inode blocks first through first + blocks - 1 full of unused
+    // inodes, one block write each
+    static void format( Cache cache, int first, int blocks ) {
+    	Inode unused = new Inode( cache );
+    	unused.flag = 0;
+    	byte[] data = new byte[Disk.blockSize];
+    	for ( int i = 0; i < inodesPerBlock; i++ ) {
+    	    unused.toBytes( data, i * iNodeSize );
+        }
+    	for ( int i = 0; i < blocks; i++ ) {
+    	    cache.write( first + i, data, IOStats.INODE );
+    	    inodeWrites.increment( );
+        }
+    }
+
+    // add the inode I/O counters to stats
+    static void stats( IOStats stats ) {
+        stats.inodeReads += inodeReads.sum( );
+        stats.inodeWrites += inodeWrites.sum( );
+        stats.indexReads += indexReads.sum( );
+        stats.indexWrites += indexWrites.sum( );
+    }
+
+    static void resetStats( ) {
+        inodeReads.reset( );
+        inodeWrites.reset( );
+        indexReads.reset( );
+        indexWrites.reset( );
+    }
+
     int findIndexBlock( ) { // return the index block number
     	return indirect;
     }
 
-    boolean registerIndexBlock( short indexBlockNumber ) {
-    	for ( int i = 0; i < directSize; i++ ){    // check if all direct ptrs
-    	    if ( direct[i] == -1 ){         // have a block number
-    		    return false;
+    synchronized boolean registerIndexBlock( short indexBlockNumber ) {
+    	if ( extents ) {                          // check if all extents in
+    	    if ( extentStart( inodeExtents - 1 ) == -1 ) // direct[] are used
+    	        return false;
+    	} else {
+    	    for ( int i = 0; i < directSize; i++ ){ // check if all direct ptrs
+    	        if ( direct[i] == -1 ){      // have a block number
+    		        return false;
+                }
             }
-        }
+    	}
     	if ( indirect != -1 ){// check if the indirect has
             return false;  // not yet had a block number
         }                
     	indirect = indexBlockNumber;              // register it
-    	byte[] indexBlock = new byte[Disk.blockSize];
-    	for ( int i = 0; i < Disk.blockSize / 2; i++ )
-    	    SysLib.short2bytes( (short)-1, indexBlock, i * 2 );
-    	SysLib.rawwrite( indexBlockNumber, indexBlock );
+    	index = new short[indexSize];             // an empty index, written
+    	for ( int i = 0; i < indexSize; i++ )     // back with the inode
+    	    index[i] = -1;
+    	indexDirty = true;
     	    
     	return true;
     }
 
     int findTargetBlock( int offset ) {     // find the block# including offset
+    	if ( extents )
+    	    return findExtentBlock( offset );
     	int directNumber = offset / Disk.blockSize;
     	if ( directNumber < directSize ){    // target is in direct pointers
     	    return direct[directNumber];
@@ -125,15 +243,62 @@ public class Inode {
     	    if ( indirect < 0 ) {          // indirect is null
     		    return -1;
             } else{
-    		    byte[] indexBlock = new byte[Disk.blockSize];
-    		    SysLib.rawread( indirect, indexBlock ); // read the index block
     		    int indirectNumber = directNumber - directSize;
-    		    return SysLib.bytes2short( indexBlock, indirectNumber * 2 );
+    		    if ( indirectNumber >= indexSize ) // past the largest file
+    		        return -1;
+    		    return index( )[indirectNumber];
     	    }
     	}
     }
     
-    int registerTargetBlock( int offset, short targetBlockNumber ) {
+    // return the # blocks of the physical run starting at the block that
+    // includes offset, that is how many blocks from findTargetBlock( offset )
+    // on hold the file contiguously. 0 if offset is not mapped.
+    int findRun( int offset ) {
+    	int target = findTargetBlock( offset );
+    	if ( target < 0 )
+    	    return 0;
+    	int run = 1;
+    	if ( extents ) {                    // the rest of its extent, and the
+    	    int block = offset / Disk.blockSize; // extents following it on disk
+    	    int i = 0;
+    	    while ( block >= extentLength( i ) )
+    	        block -= extentLength( i++ );
+    	    run = extentLength( i ) - block;
+    	    for ( i++; i < maxExtents( ) && extentStart( i ) == target + run; i++ )
+    	        run += extentLength( i );
+    	    return run;
+    	}
+    	while ( findTargetBlock( offset + run * Disk.blockSize ) == target + run )
+    	    run++;
+    	return run;
+    }
+
+    // return the physical runs holding the bytes offset through
+    // offset + length - 1 as (start block, # blocks) pairs, in file order.
+    // The runs stop early at the first block that is not mapped.
+    int[] findRuns( int offset, int length ) {
+    	int[] runs = new int[8];
+    	int n = 0;
+    	int block = offset / Disk.blockSize;
+    	int last = ( offset + length - 1 ) / Disk.blockSize;
+    	while ( length > 0 && block <= last ) {
+    	    int target = findTargetBlock( block * Disk.blockSize );
+    	    if ( target < 0 )
+    	        break;
+    	    int run = Math.min( findRun( block * Disk.blockSize ), last - block + 1 );
+    	    if ( n == runs.length )
+    	        runs = Arrays.copyOf( runs, n * 2 );
+    	    runs[n++] = target;
+    	    runs[n++] = run;
+    	    block += run;
+    	}
+    	return Arrays.copyOf( runs, n );
+    }
+
+    synchronized int registerTargetBlock( int offset, short targetBlockNumber ) {
+    	if ( extents )
+    	    return registerExtentBlock( offset, targetBlockNumber );
     	int directNumber = offset / Disk.blockSize;
     	if ( directNumber < directSize ) {      // target is in direct pointers
     	    if ( direct[directNumber] >= 0 )    // already registered!
@@ -146,33 +311,114 @@ public class Inode {
     	    if ( indirect < 0 ) {               // indirect is null
     		    return ErrorIndirectNull;
             } else {
-        		byte[] indexBlock = new byte[Disk.blockSize];
-        		SysLib.rawread( indirect, indexBlock ); // read the index block
+        		short[] pointers = index( );
         		int indirectNumber = directNumber - directSize;
-        		if ( SysLib.bytes2short(indexBlock, indirectNumber * 2) > 0 ) {
+        		if ( indirectNumber >= indexSize )   // the file is full
+        		    return ErrorBlockRegistered;
+        		if ( pointers[indirectNumber] > 0 ) {
         		    SysLib.cerr( "indexBlock, indirectNumber = " +
         				 indirectNumber + " contents = " +
-        				 SysLib.bytes2short(indexBlock,
-        						    indirectNumber * 2 ) + "\n");
+        				 pointers[indirectNumber] + "\n");
         		    return ErrorBlockRegistered;
         		}
-        		SysLib.short2bytes( targetBlockNumber, 
-        				    indexBlock, indirectNumber * 2 );
-        		SysLib.rawwrite( indirect, indexBlock ); //write back the index
+        		pointers[indirectNumber] = targetBlockNumber;
+        		indexDirty = true;                  // written back with the inode
         		return NoError;
     	    }
     	}
     }
 
-    byte[] unregisterIndexBlock( ) {
-    	if ( indirect >= 0 ) {
+    // forget every block of the file and return the index block that has
+    // to be freed along with them, -1 if none
+    synchronized int unregisterAllBlocks( ) {
+    	int indexBlock = indirect;
+    	for ( int i = 0; i < directSize; i++ )
+    	    direct[i] = -1;
+    	indirect = -1;
+    	index = null;
+    	indexDirty = false;
+    	return indexBlock;
+    }
+
+    private int findExtentBlock( int offset ) { // block# including offset
+    	int block = offset / Disk.blockSize;
+    	for ( int i = 0; i < maxExtents( ) && extentStart( i ) != -1; i++ ) {
+    	    if ( block < extentLength( i ) )
+    	        return extentStart( i ) + block;
+    	    block -= extentLength( i );
+    	}
+    	return -1;
+    }
+
+    private int registerExtentBlock( int offset, short targetBlockNumber ) {
+    	int block = offset / Disk.blockSize;
+    	int mapped = 0;                           // # blocks in the extents
+    	int last = -1;                            // the last extent used
+    	while ( last + 1 < maxExtents( ) && extentStart( last + 1 ) != -1 )
+    	    mapped += extentLength( ++last );
+    	if ( block < mapped )
+    	    return ErrorBlockRegistered;          // already registered!
+    	if ( block > mapped )
+    	    return ErrorPrecBlockUnused;          // preceding block unused!
+    	if ( last >= 0 && extentLength( last ) < Short.MAX_VALUE &&
+    	     extentStart( last ) + extentLength( last ) == targetBlockNumber ) {
+    	    setExtent( last, extentStart( last ), extentLength( last ) + 1 );
+    	    return NoError;                       // grow the last extent
+    	}
+    	if ( last + 1 == inodeExtents && indirect < 0 )
+    	    return ErrorIndirectNull;             // extent block is null
+    	if ( last + 1 == maxExtents( ) )
+    	    return ErrorBlockRegistered;          // the file is full
+    	setExtent( last + 1, targetBlockNumber, 1 ); // start a new extent
+    	return NoError;
+    }
+
+    private int maxExtents( ) {             // # extents this inode has room for
+    	return inodeExtents + ( indirect < 0 ? 0 : indexExtents );
+    }
+
+    private int extentStart( int i ) {
+    	return i < inodeExtents ? direct[i * 2] : index( )[( i - inodeExtents ) * 2];
+    }
+
+    private int extentLength( int i ) {
+    	return i < inodeExtents ? direct[i * 2 + 1] : index( )[( i - inodeExtents ) * 2 + 1];
+    }
+
+    private void setExtent( int i, int start, int length ) {
+    	if ( i < inodeExtents ) {
+    	    direct[i * 2] = (short)start;
+    	    direct[i * 2 + 1] = (short)length;
+    	} else {
+    	    index( )[( i - inodeExtents ) * 2] = (short)start;
+    	    index( )[( i - inodeExtents ) * 2 + 1] = (short)length;
+    	    indexDirty = true;                    // written back with the inode
+    	}
+    }
+
+    // the decoded index block, read from disk on first use
+    private synchronized short[] index( ) {
+    	if ( index == null ) {
     	    byte[] indexBlock = new byte[Disk.blockSize];
-    	    SysLib.rawread( indirect, indexBlock );
-    	    indirect = -1;
-    	    return indexBlock;
+    	    cache.read( indirect, indexBlock, IOStats.INDEX ); // read the index block
+    	    indexReads.increment( );
+    	    short[] pointers = new short[indexSize];
+    	    for ( int i = 0; i < indexSize; i++ )
+    	        pointers[i] = SysLib.bytes2short( indexBlock, i * 2 );
+    	    index = pointers;
     	}
-    	else
-    	    return null;
-        }
-}
+    	return index;
+    }
 
+    // write the index block back if it changed since it was read
+    private synchronized void syncIndex( ) {
+    	if ( !indexDirty || indirect < 0 )
+    	    return;
+    	byte[] indexBlock = new byte[Disk.blockSize];
+    	for ( int i = 0; i < indexSize; i++ )
+    	    SysLib.short2bytes( index[i], indexBlock, i * 2 );
+    	cache.write( indirect, indexBlock, IOStats.INDEX ); //write back the index
+    	indexWrites.increment( );
+    	indexDirty = false;
+    }
+}
@@ -0,0 +1,121 @@
+import java.util.*;
+
+// the in-core inode table. Every open of a file shares one Inode object
+// per iNumber, which is read from disk once and written back only when it
+// is dirty: when its last reference is dropped, on sync, or when it is
+// evicted to make room for another inode. Dirty inodes sharing an inode
+// block are written back together, one block write per block.
+public class InodeTable {
+
+    private LinkedHashMap<Short, Inode> table;   // in-core inodes, least recently used first
+    private int capacity;                        // # inodes kept in core
+    private Cache cache;                         // block cache inodes are read through
+    private boolean extents;                     // inodes are extent-mapped
+
+    public InodeTable( Cache cache, int capacity ) {
+        this( cache, capacity, false );
+    }
+
+    public InodeTable( Cache cache, int capacity, boolean extents ) {
+        table = new LinkedHashMap<Short, Inode>( 16, 0.75f, true );
+        this.capacity = capacity;
+        this.cache = cache;
+        this.extents = extents;
+    }
+
+    // return the in-core inode of iNumber with one more reference,
+    // reading it from disk if it is not in core yet
+    public synchronized Inode iget( short iNumber ) {
+        Inode inode = table.get( iNumber );
+        if ( inode == null ) {
+            inode = new Inode( iNumber, cache, extents );
+            table.put( iNumber, inode );
+            evict( );
+        }
+        inode.refs++;
+        return inode;
+    }
+
+    // return a fresh inode for the newly allocated iNumber with one
+    // reference. It replaces whatever was in core for it, and reaches the
+    // disk once it is written back.
+    public synchronized Inode ialloc( short iNumber ) {
+        Inode inode = new Inode( cache, extents );
+        inode.refs = 1;
+        inode.dirty = true;
+        table.put( iNumber, inode );
+        evict( );
+        return inode;
+    }
+
+    // drop a reference to inode, writing it back if that was the last one
+    public synchronized void iput( short iNumber, Inode inode ) {
+        if ( --inode.refs == 0 && inode.dirty ) {
+            writeBack( iNumber, inode );
+        }
+    }
+
+    // write back every dirty inode, referenced or not, in block order
+    public synchronized void sync( ) {
+        TreeMap<Short, Inode> dirty = new TreeMap<Short, Inode>( );
+        for ( Map.Entry<Short, Inode> e : table.entrySet( ) ) {
+            if ( e.getValue( ).dirty ) {
+                dirty.put( e.getKey( ), e.getValue( ) );
+            }
+        }
+        short[] iNumbers = new short[Inode.inodesPerBlock];
+        Inode[] block = new Inode[Inode.inodesPerBlock];
+        int count = 0;
+        for ( Map.Entry<Short, Inode> e : dirty.entrySet( ) ) {
+            // a new block starts, write back the one collected so far
+            if ( count > 0 && Inode.blockOf( e.getKey( ) ) != Inode.blockOf( iNumbers[0] ) ) {
+                writeBack( iNumbers, block, count );
+                count = 0;
+            }
+            iNumbers[count] = e.getKey( );
+            block[count++] = e.getValue( );
+        }
+        if ( count > 0 ) {
+            writeBack( iNumbers, block, count );
+        }
+    }
+
+    // drop the least recently used unreferenced inodes until the table
+    // fits its capacity again. Referenced inodes always stay in core.
+    private void evict( ) {
+        Iterator<Map.Entry<Short, Inode>> it = table.entrySet( ).iterator( );
+        while ( table.size( ) > capacity && it.hasNext( ) ) {
+            Map.Entry<Short, Inode> e = it.next( );
+            Inode inode = e.getValue( );
+            if ( inode.refs == 0 ) {
+                if ( inode.dirty ) {
+                    writeBack( e.getKey( ), inode );
+                }
+                it.remove( );
+            }
+        }
+    }
+
+    // write back inode together with every other dirty inode in its block
+    private void writeBack( short iNumber, Inode inode ) {
+        short[] iNumbers = new short[Inode.inodesPerBlock];
+        Inode[] block = new Inode[Inode.inodesPerBlock];
+        int blkNumber = Inode.blockOf( iNumber );
+        int count = 0;
+        for ( Map.Entry<Short, Inode> e : table.entrySet( ) ) {
+            if ( ( e.getValue( ).dirty || e.getValue( ) == inode )
+                 && Inode.blockOf( e.getKey( ) ) == blkNumber ) {
+                iNumbers[count] = e.getKey( );
+                block[count++] = e.getValue( );
+            }
+        }
+        writeBack( iNumbers, block, count );
+    }
+
+    private void writeBack( short[] iNumbers, Inode[] block, int count ) {
+        for ( int i = 0; i < count; i++ ) {
+            block[i].dirty = false;
+        }
+        Inode.toDisk( cache, iNumbers, block, count );
+    }
+}
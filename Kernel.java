@@ -39,9 +39,18 @@ public class Kernel
     public final static int SIZE    = 16; // SysLib.size( int fd )
     public final static int SEEK    = 17; // SysLib.seek( int fd, int offest, 
                                           //              int whence )
-    public final static int FORMAT  = 18; // SysLib.format( int files )
+    public final static int FORMAT  = 18; // SysLib.format( int files[, int options] )
     public final static int DELETE  = 19; // SysLib.delete( String fileName )
 
+    // I/O statistics
+    public final static int STATS   = 20; // SysLib.stats( ), SysLib.resetStats( )
+    public final static int FRAGS   = 21; // SysLib.fragments( int fd )
+
+    // Directories
+    public final static int MKDIR   = 22; // SysLib.mkdir( String path )
+    public final static int RMDIR   = 23; // SysLib.rmdir( String path )
+    public final static int READDIR = 24; // SysLib.readdir( String path )
+
     // Predefined file descriptors
     public final static int STDIN  = 0;
     public final static int STDOUT = 1;
@@ -55,6 +64,8 @@ public class Kernel
     private static Scheduler scheduler;
     private static Disk disk;
     private static Cache cache;
+    private static CacheFlusher flusher;
+    private static ReadAhead readAhead;
 
     // Synchronized Queues
     private static SyncQueue waitQueue;  // for threads to wait for their child
@@ -65,6 +76,14 @@ public class Kernel
     private final static int COND_DISK_REQ = 1; // wait condition 
     private final static int COND_DISK_FIN = 2; // wait condition
 
+    // Boot parameters, given as java -DthreadOS.<name>=<value>
+    private final static int DEFAULT_CACHE_BLOCKS = 10;
+    private final static int DEFAULT_DIRTY_HIGH = 40;       // % of pages
+    private final static int DEFAULT_DIRTY_LOW = 10;        // % of pages
+    private final static int DEFAULT_MAX_DIRTY_AGE = 3000;  // milliseconds
+    private final static int DEFAULT_FLUSH_INTERVAL = 100;  // milliseconds
+    private final static int DEFAULT_READ_AHEAD = 16;       // blocks
+
     // Standard input
     private static BufferedReader input
 	= new BufferedReader( new InputStreamReader( System.in ) );
@@ -84,15 +103,42 @@ public class Kernel
         		disk = new Disk( 1000 );
         		disk.start( );
         
-        		// instantiate a cache memory
-        		cache = new Cache( disk.blockSize, 10 );
-        
-        		// instantiate synchronized queues
+        		// instantiate synchronized queues before any daemon that
+        		// does disk I/O is started
         		ioQueue = new SyncQueue( );
         		waitQueue = new SyncQueue( scheduler.getMaxThreads( ) );
 
-                // instantiate file system
-                fs = new FileSystem(1000);
+        		// instantiate a cache memory. cache.writeThrough=true sends
+        		// every write straight to disk for comparison with write-back,
+        		// cache.stripes=1 keeps the whole cache under a single lock,
+        		// cache.policy picks the eviction policy (clock, lru, 2q, arc)
+        		boolean writeThrough = Boolean.getBoolean( "threadOS.cache.writeThrough" );
+        		cache = new Cache( disk.blockSize,
+        				   bootParam( "cache.blocks", DEFAULT_CACHE_BLOCKS ),
+        				   writeThrough,
+        				   bootParam( "cache.stripes", 0 ),
+        				   System.getProperty( "threadOS.cache.policy", "clock" ) );
+
+        		// a write-back cache gets a daemon that cleans dirty pages
+        		// before they are chosen as victims
+        		if ( !writeThrough ) {
+        		    flusher = new CacheFlusher( cache,
+        				bootParam( "cache.dirtyHigh", DEFAULT_DIRTY_HIGH ),
+        				bootParam( "cache.dirtyLow", DEFAULT_DIRTY_LOW ),
+        				bootParam( "cache.maxDirtyAge", DEFAULT_MAX_DIRTY_AGE ),
+        				bootParam( "cache.flushInterval", DEFAULT_FLUSH_INTERVAL ) );
+        		    scheduler.addThread( flusher );
+        		}
+
+                // instantiate a read-ahead daemon unless fs.readAhead=0
+                int maxReadAhead = bootParam( "fs.readAhead", DEFAULT_READ_AHEAD );
+                if ( maxReadAhead > 0 ) {
+                    readAhead = new ReadAhead( cache, maxReadAhead );
+                    scheduler.addThread( readAhead );
+                }
+
+                // instantiate file system on top of the cache
+                fs = new FileSystem(1000, cache, readAhead);
         		return OK;
                 
     	    case EXEC:
@@ -275,10 +321,48 @@ public class Kernel
             }
             return ERROR;
 	    case FORMAT:  // to be implemented in project
+            if (args != null) {
+                // layout options, see SuperBlock.FORMAT_EXTENTS
+                return fs.format(param, ((int[])args)[0]);
+            }
             return fs.format(param);
 		
 	    case DELETE:  // to be implemented in project
             return fs.delete((String)args) ? 0 : -1;
+
+	    case MKDIR:
+            return fs.mkdir((String)args) ? OK : ERROR;
+
+	    case RMDIR:
+            return fs.rmdir((String)args) ? OK : ERROR;
+
+	    case READDIR: // args = { String path, Vector<String> names }
+            Object[] dirArgs = (Object[])args;
+            // the generic type is erased, but SysLib.readdir always passes
+            // a Vector<String>
+            @SuppressWarnings("unchecked")
+            Vector<String> names = (Vector<String>)dirArgs[1];
+            return fs.readdir((String)dirArgs[0], names);
+
+	    case FRAGS:   // # physical runs the file is split into
+            myTcb = scheduler.getMyTcb();
+            if (myTcb != null) {
+                FileTableEntry entry = myTcb.getFtEnt(param);
+                if (entry != null) {
+                    return fs.fragments(entry);
+                }
+            }
+            return ERROR;
+
+	    case STATS:   // snapshot the I/O counters, then reset them if param != 0
+            IOStats stats = (IOStats)args;
+            cache.stats(stats);
+            fs.stats(stats);
+            if (param != 0) {
+                cache.resetStats();
+                fs.resetStats();
+            }
+            return OK;
 	    }
 	    return ERROR;
 	case INTERRUPT_DISK: // Disk interrupts
@@ -295,6 +379,11 @@ public class Kernel
 	return OK;
     }
 
+    // Read an integer boot parameter, falling back to defaultValue
+    private static int bootParam( String name, int defaultValue ) {
+	return Integer.getInteger( "threadOS." + name, defaultValue );
+    }
+
     // Spawning a new thread
     private static int sysExec( String args[] ) {
 	String thrName = args[0]; // args[0] has a thread name
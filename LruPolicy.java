@@ -0,0 +1,42 @@
+// Exact least-recently-used replacement: every hit moves the frame to the
+// head of a recency list and the victim is always the tail.
+
+public class LruPolicy implements EvictionPolicy {
+    private static final int RESIDENT = 0;
+
+    private FrameLists lru;
+
+    public LruPolicy(int frames) {
+        lru = new FrameLists(frames, 1);
+    }
+
+    public void inserted(int frame, int blockId, boolean referenced) {
+        // a prefetched block too, so a run of them is evicted oldest
+        // first rather than each one pushing out the one before it
+        lru.pushHead(RESIDENT, frame);
+    }
+
+    public void accessed(int frame) {
+        lru.pushHead(RESIDENT, frame);
+    }
+
+    public void removed(int frame, int blockId) {
+        lru.remove(frame);
+    }
+
+    public int victim() {
+        return lru.tail(RESIDENT);
+    }
+
+    public int victimHint() {
+        return lru.tail(RESIDENT);
+    }
+
+    public void clear() {
+        lru.clear();
+    }
+
+    public String name() {
+        return "lru";
+    }
+}
@@ -0,0 +1,85 @@
+// ThreadOS program that times the Directory half of mount and sync for
+// directories of 64, 1000, 10000 and 32767 slots, all of them in use:
+// bytes2directory, which FileSystem runs at mount, and directory2bytes,
+// which sync runs when the whole directory file has to be written.
+//
+// Only in-memory Directory objects are used, so the disk is left as it is.
+//
+// Usage from the ThreadOS shell: l MountBench [rounds]
+
+import java.util.*;
+
+public class MountBench extends Thread {
+    private static final int[] SLOTS = { 64, 1000, 10000, 32767 };
+
+    private int rounds = 50;
+
+    public MountBench( ) {
+        this( new String[0] );
+    }
+
+    public MountBench( String args[] ) {
+        if ( args.length > 0 )
+            rounds = Integer.parseInt( args[0] );
+    }
+
+    public void run( ) {
+        SysLib.cout( "MountBench: best of " + rounds + " rounds\n" );
+        // once untimed, so the first row is not paying for the JIT
+        measure( SLOTS[SLOTS.length - 1] );
+        SysLib.cout( "slots     bytes  mount (us)  ns/slot  sync (us)  ns/slot\n" );
+        for ( int s = 0; s < SLOTS.length; s++ ) {
+            int slots = SLOTS[s];
+            long[] best = measure( slots );
+            if ( best == null ) {
+                SysLib.cerr( "MountBench: mounted directory lost a name\n" );
+                break;
+            }
+            SysLib.cout( pad( slots, 5 ) + pad( new Directory( slots ).bytes( ), 10 ) +
+                         pad( best[0] / 1000, 12 ) + pad( best[0] / slots, 9 ) +
+                         pad( best[1] / 1000, 11 ) + pad( best[1] / slots, 9 ) + "\n" );
+        }
+        SysLib.exit( );
+    }
+
+    // { best bytes2directory ns, best directory2bytes ns } for a full
+    // directory of slots slots, or null if the decoded copy is wrong
+    private long[] measure( int slots ) {
+        Directory directory = new Directory( slots );
+        // full length names, slot 0 is "/" itself
+        for ( int i = 1; i < slots; i++ )
+            directory.ialloc( "/" + name( i ) );
+
+        byte[] data = directory.directory2bytes( );
+        Directory mounted = new Directory( slots );
+        long bestMount = Long.MAX_VALUE;
+        long bestSync = Long.MAX_VALUE;
+        for ( int r = 0; r < rounds; r++ ) {
+            long start = System.nanoTime( );
+            mounted.bytes2directory( data );
+            bestMount = Math.min( bestMount, System.nanoTime( ) - start );
+
+            start = System.nanoTime( );
+            data = directory.directory2bytes( );
+            bestSync = Math.min( bestSync, System.nanoTime( ) - start );
+        }
+        if ( mounted.namei( "/" + name( slots - 1 ) ) != slots - 1 )
+            return null;
+        return new long[] { bestMount, bestSync };
+    }
+
+    // a name unique to i of 30 characters, the longest Directory takes
+    private static String name( int i ) {
+        String s = "file" + i;
+        while ( s.length( ) < 30 )
+            s = s + "x";
+        return s;
+    }
+
+    private static String pad( long n, int width ) {
+        String s = "" + n;
+        while ( s.length( ) < width )
+            s = " " + s;
+        return s;
+    }
+}
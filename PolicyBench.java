@@ -0,0 +1,129 @@
+// ThreadOS program that runs the same block workloads against a cache of
+// each eviction policy (clock, lru, 2q, arc) and reports the hit ratios, so
+// a policy for threadOS.cache.policy can be picked from evidence.
+//
+// The workloads only read, so the disk contents are left as they are:
+//   scan       one sequential read of SCAN blocks with read-ahead
+//   mixed      a hot set of HOT blocks, standing in for the inode and
+//              directory blocks, read alongside a long sequential scan,
+//              once with read-ahead and once without
+// Read-ahead prefetches up to window blocks past the one being read, as
+// FileSystem.read does with a full window. Disk reads count both misses
+// and prefetches. 2Q keeps blocks seen once in a quarter of the frames, so
+// a window that does not fit in there is lost to the hot set.
+//
+// Usage from the ThreadOS shell: l PolicyBench [frames [window]]
+
+import java.util.*;
+
+public class PolicyBench extends Thread {
+    private static final String[] POLICIES = { "clock", "lru", "2q", "arc" };
+    private static final int SCAN = 200;       // blocks in the scan workload
+    private static final int HOT = 48;         // hot blocks in the mixed one
+    private static final int FIRST = 100;      // the scans start here
+    private static final int LAST = 1000;      // and wrap around here
+    private static final int READS = 40000;    // reads in the mixed workload
+
+    private int frames = 128;
+    private int window = 16;       // read-ahead window in blocks, the
+                                   // fs.readAhead default
+
+    public PolicyBench( ) {
+        this( new String[0] );
+    }
+
+    public PolicyBench( String args[] ) {
+        if ( args.length > 0 )
+            frames = Integer.parseInt( args[0] );
+        if ( args.length > 1 )
+            window = Integer.parseInt( args[1] );
+    }
+
+    public void run( ) {
+        SysLib.cout( "PolicyBench: " + frames + " frames, read-ahead window " +
+                     window + "\n" );
+        SysLib.cout( "policy workload             hot hit  scan hit  all hit  disk reads\n" );
+        for ( int p = 0; p < POLICIES.length; p++ ) {
+            report( POLICIES[p], "scan, read-ahead", scan( POLICIES[p] ) );
+            report( POLICIES[p], "mixed, read-ahead", mixed( POLICIES[p], true ) );
+            report( POLICIES[p], "mixed, no read-ahead", mixed( POLICIES[p], false ) );
+        }
+        SysLib.exit( );
+    }
+
+    // one sequential read of SCAN blocks
+    private IOStats scan( String policy ) {
+        Cache cache = new Cache( Disk.blockSize, frames, false, 1, policy );
+        byte[] buffer = new byte[Disk.blockSize];
+        int limit = FIRST;
+        for ( int block = FIRST; block < FIRST + SCAN; block++ )
+            limit = readAhead( cache, block, limit, FIRST + SCAN, buffer );
+        IOStats stats = new IOStats( );
+        cache.stats( stats );
+        return stats;
+    }
+
+    // every fourth read continues a scan from FIRST to LAST, wrapping
+    // around; the others go to a random block of the hot set
+    private IOStats mixed( String policy, boolean prefetch ) {
+        Cache cache = new Cache( Disk.blockSize, frames, false, 1, policy );
+        byte[] buffer = new byte[Disk.blockSize];
+        Random random = new Random( 1 );
+        int block = FIRST;
+        int limit = FIRST;
+        for ( int i = 0; i < READS; i++ ) {
+            if ( i % 4 != 0 ) {
+                cache.read( random.nextInt( HOT ), buffer, IOStats.INODE );
+                continue;
+            }
+            if ( prefetch )
+                limit = readAhead( cache, block, limit, LAST, buffer );
+            else
+                cache.read( block, buffer, IOStats.DATA );
+            if ( ++block == LAST ) {
+                block = FIRST;
+                limit = FIRST;
+            }
+        }
+        IOStats stats = new IOStats( );
+        cache.stats( stats );
+        return stats;
+    }
+
+    // read block of a scan, first prefetching the blocks of its window
+    // from limit on that are not requested yet. Returns the new limit.
+    private int readAhead( Cache cache, int block, int limit, int end, byte[] buffer ) {
+        for ( int b = Math.max( block + 1, limit ); b <= block + window && b < end; b++ ) {
+            cache.prefetch( b );
+            limit = b + 1;
+        }
+        cache.read( block, buffer, IOStats.DATA );
+        return limit;
+    }
+
+    private void report( String policy, String workload, IOStats stats ) {
+        int hot = IOStats.INODE;
+        int scan = IOStats.DATA;
+        SysLib.cout( pad( policy, 7 ) + pad( workload, 21 ) +
+                     ratio( stats.hits[hot], stats.misses[hot] ) +
+                     ratio( stats.hits[scan], stats.misses[scan] ) +
+                     ratio( stats.hits( ), stats.misses( ) ) +
+                     "  " + ( stats.misses( ) + stats.prefetches ) + "\n" );
+    }
+
+    // hits / ( hits + misses ) as a right-aligned 3-place decimal, "-" if
+    // there were no reads
+    private static String ratio( long hits, long misses ) {
+        if ( hits + misses == 0 )
+            return "        -";
+        long thousandths = hits * 1000 / ( hits + misses );
+        String s = thousandths / 1000 + "." + ( thousandths % 1000 + 1000 + "" ).substring( 1 );
+        return "    " + s;
+    }
+
+    private static String pad( String s, int width ) {
+        while ( s.length( ) < width )
+            s = s + " ";
+        return s;
+    }
+}
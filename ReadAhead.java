@@ -0,0 +1,54 @@
+// Kernel thread that prefetches file blocks into the Cache on behalf of
+// sequential readers. FileSystem.read queues the physical blocks it expects
+// to be read next; this thread loads them while the reader is still busy
+// with the blocks it already has.
+
+public class ReadAhead extends Thread {
+    private static final int QUEUE_SIZE = 256;
+
+    private Cache cache;
+    private int maxWindow;   // largest read-ahead window in blocks
+
+    // ring buffer of block numbers waiting to be prefetched
+    private int[] queue = new int[QUEUE_SIZE];
+    private int head = 0;
+    private int count = 0;
+
+    public ReadAhead( Cache cache, int maxWindow ) {
+        this.cache = cache;
+        this.maxWindow = maxWindow;
+        setDaemon( true ); // never keeps ThreadOS from shutting down
+    }
+
+    public int maxWindow( ) {
+        return maxWindow;
+    }
+
+    // queue blockId for prefetching. Read-ahead is only a hint, so when the
+    // queue is full the request is dropped rather than making the reader wait.
+    public synchronized boolean request( int blockId ) {
+        if ( count == QUEUE_SIZE )
+            return false;
+        queue[( head + count ) % QUEUE_SIZE] = blockId;
+        count++;
+        notify( );
+        return true;
+    }
+
+    private synchronized int next( ) {
+        while ( count == 0 ) {
+            try {
+                wait( );
+            } catch ( InterruptedException e ) { }
+        }
+        int blockId = queue[head];
+        head = ( head + 1 ) % QUEUE_SIZE;
+        count--;
+        return blockId;
+    }
+
+    public void run( ) {
+        while ( true )
+            cache.prefetch( next( ) );
+    }
+}
@@ -5,23 +5,60 @@
 */
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 public class SuperBlock {
     private final int defaultInodeBlocks = 64;
     public int totalBlocks;
     public int totalInodes;
-    public int freeList;
+    public int freeList;     // in bitmap format, the first bitmap block
+    public int options;      // FORMAT_ bits chosen at format time
+    public int lazyFree;     // blocks from here on are free but not on the
+                             // free list or bitmap yet, see FORMAT_LAZY
+
+    // files map their blocks through extents instead of block pointers
+    public final static int FORMAT_EXTENTS = 1;
+    // free space is kept in an allocation bitmap instead of a free list
+    public final static int FORMAT_BITMAP = 2;
+    // format leaves the free data blocks alone, they are put on the free
+    // list (or their bitmap blocks written) only once they are first used
+    public final static int FORMAT_LAZY = 4;
+
+    // the allocation bitmap, null unless FORMAT_BITMAP
+    private BlockBitmap bitmap;
+    // where the search for the next free block starts in bitmap format
+    private int nextFree;
+
+    // every method that touches the free list, the bitmap or lazyFree is
+    // synchronized, so concurrent writers never get the same block
+
+    // block cache every superblock and free-list access goes through
+    private Cache cache;
+
+    // blocks handed out and given back, see IOStats
+    private LongAdder allocations = new LongAdder();
+    private LongAdder frees = new LongAdder();
 
     // constructor
-    public SuperBlock(int diskSize) {
+    public SuperBlock(int diskSize, Cache cache) {
+        this.cache = cache;
         byte[] superBlock = new byte[Disk.blockSize];
-        SysLib.rawread(0, superBlock);
+        cache.read(0, superBlock, IOStats.SUPER);
         totalBlocks = SysLib.bytes2int(superBlock, 0);
         totalInodes = SysLib.bytes2int(superBlock, 4);
         freeList = SysLib.bytes2int(superBlock, 8);
+        options = SysLib.bytes2int(superBlock, 12);
+        lazyFree = SysLib.bytes2int(superBlock, 16);
+        if ((options & FORMAT_LAZY) == 0) {
+            lazyFree = totalBlocks;
+        }
 
-        if (totalBlocks == diskSize && totalInodes > 0 && freeList >= 2) {
+        // an empty free list is fine once the disk is in use
+        if (totalBlocks == diskSize && totalInodes > 0 && (freeList >= 2 || freeList == -1)) {
             // valid disk contents
+            if ((options & FORMAT_BITMAP) != 0) {
+                bitmap = new BlockBitmap(cache, freeList, totalBlocks, lazyFree);
+            }
             return;
         } else {
             // need to format disk
@@ -32,54 +69,151 @@ public class SuperBlock {
 
     // format the superblock
     public void format(int iNodes) {
+        format(iNodes, 0);
+    }
+
+    // format the superblock with the layout options given as FORMAT_ bits
+    public synchronized void format(int iNodes, int options) {
         // initialize the superblock
         totalInodes = iNodes;
-        // initialize each inode and immediately write it back to disk
-        for (short i = 0; i < totalInodes; i++) {
-            Inode inode = new Inode();
-            inode.flag = 0;
-            inode.toDisk(i);
-        }
+        this.options = options;
+        // initialize the inode blocks, a whole block of unused inodes at a time
+        int inodeBlocks = (totalInodes + Inode.inodesPerBlock - 1) / Inode.inodesPerBlock;
+        Inode.format(cache, 1, inodeBlocks);
         // initialize free blocks
         freeList = 2 + totalInodes * 32 / Disk.blockSize;
+        if ((options & FORMAT_BITMAP) != 0) {
+            // only the bitmap blocks are written, the data blocks are
+            // free as they are
+            int dataStart = freeList + BlockBitmap.blocks(totalBlocks);
+            bitmap = BlockBitmap.format(cache, freeList, totalBlocks, dataStart,
+                                        (options & FORMAT_LAZY) != 0);
+            nextFree = dataStart;
+            sync();
+            return;
+        }
+        bitmap = null;
+        if ((options & FORMAT_LAZY) != 0) {
+            // nothing on the free list, getFreeBlock hands out the blocks
+            // from lazyFree on in order
+            lazyFree = freeList;
+            freeList = -1;
+            sync();
+            return;
+        }
+        lazyFree = totalBlocks;
         for (int i = freeList; i < totalBlocks; i++) {
             byte[] superBlock = new byte[Disk.blockSize];
             for (int j = 0; j < Disk.blockSize; j++) {
                 superBlock[j] = 0;
             }
-            SysLib.int2bytes(i + 1, superBlock, 0);
-            SysLib.rawwrite(i, superBlock);
+            // the last free block ends the list
+            SysLib.int2bytes(i + 1 < totalBlocks ? i + 1 : -1, superBlock, 0);
+            cache.write(i, superBlock, IOStats.FREE);
         }
         sync();
         
     }
 
     // sync the superblock
-    public void sync() {
-        // write back in-memory superblock to disk: SysLib.rawwrite( 0, superblock );
+    public synchronized void sync() {
+        // the bitmap blocks that changed since the last sync go first, they
+        // decide how far lazyFree has moved
+        if (bitmap != null) {
+            bitmap.sync();
+            lazyFree = bitmap.lazyFree();
+        }
+
+        // write back in-memory superblock to disk: cache.write( 0, superblock );
         byte[] superBlock = new byte[Disk.blockSize];
         SysLib.int2bytes(totalBlocks, superBlock, 0);
         SysLib.int2bytes(totalInodes, superBlock, 4);
         SysLib.int2bytes(freeList, superBlock, 8);
-        SysLib.rawwrite(0, superBlock);
+        SysLib.int2bytes(options, superBlock, 12);
+        SysLib.int2bytes(lazyFree, superBlock, 16);
+        cache.write(0, superBlock, IOStats.SUPER);
+    }
+
+    // whether files are extent-mapped
+    public boolean extents() {
+        return (options & FORMAT_EXTENTS) != 0;
+    }
+
+    // # free blocks, or -1 if the disk keeps a free list, which would
+    // have to be walked to count them
+    public synchronized int freeBlocks() {
+        return bitmap != null ? bitmap.free() : -1;
     }
 
     // attempt to get a free block
-    public int getFreeBlock() {
+    public synchronized int getFreeBlock() {
+        if (bitmap != null) {
+            // the next free block after the last one handed out
+            int block = bitmap.findFree(nextFree);
+            if (block != -1) {
+                bitmap.set(block);
+                nextFree = block + 1;
+                allocations.increment();
+            }
+            return block;
+        }
+
+        // the free list is empty, take the next block never used yet
+        if (freeList == -1 && lazyFree < totalBlocks) {
+            allocations.increment();
+            return lazyFree++;
+        }
+
         // get a new free block from the free list                                                                  
         int freeBlockNumber = freeList;
         if (freeBlockNumber != -1) {
             byte[] superBlock = new byte[Disk.blockSize];
-            SysLib.rawread(freeBlockNumber, superBlock);
+            cache.read(freeBlockNumber, superBlock, IOStats.FREE);
             freeList = SysLib.bytes2int(superBlock, 0);
+            // clear the link, the rest of the block is left alone
             SysLib.int2bytes(0, superBlock, 0);
-            SysLib.rawwrite(freeBlockNumber, superBlock);
+            cache.write(freeBlockNumber, 0, superBlock, 0, 4, IOStats.FREE);
+            allocations.increment();
         }
         return freeBlockNumber;
     }
 
+    // get up to count free blocks in a row, as close after goal as possible,
+    // for a file whose last block is goal - 1. Returns { first block, #
+    // blocks }, or null if the disk is full. The free list has no notion
+    // of locality, so without a bitmap this is a single getFreeBlock.
+    public synchronized int[] getFreeRun(int goal, int count) {
+        if (bitmap == null) {
+            int block = getFreeBlock();
+            return block == -1 ? null : new int[] { block, 1 };
+        }
+        // no goal, carry on after the last blocks handed out
+        int start = bitmap.findRun(goal < 0 ? nextFree : goal, count);
+        if (start == -1) {
+            return null;
+        }
+        int length = bitmap.runLength(start, count);
+        for (int i = 0; i < length; i++) {
+            bitmap.set(start + i);
+        }
+        nextFree = start + length;
+        allocations.add(length);
+        return new int[] { start, length };
+    }
+
     // return a block to the free list
-    public boolean returnBlock (int blockNumber) {
+    public synchronized boolean returnBlock (int blockNumber) {
+        if (bitmap != null) {
+            // a block that is already free or holds metadata stays as it is
+            if (blockNumber < freeList + BlockBitmap.blocks(totalBlocks) || blockNumber >= totalBlocks
+                || bitmap.isFree(blockNumber)) {
+                return false;
+            }
+            bitmap.clear(blockNumber);
+            frees.increment();
+            return true;
+        }
+
         // return this old block to the free list. The list can be a stack.
         if (blockNumber >= 0) {
             byte[] superBlock = new byte[Disk.blockSize];
@@ -87,10 +221,55 @@ public class SuperBlock {
                 superBlock[i] = 0;
             }
             SysLib.int2bytes(freeList, superBlock, 0);
-            SysLib.rawwrite(blockNumber, superBlock);
+            cache.write(blockNumber, superBlock, IOStats.FREE);
+            frees.increment();
             freeList = blockNumber;
             return true;
         }
         return false; 
     }
+
+    // return the count blocks from start on to the free list at once, as
+    // when a file is truncated or deleted. On a bitmap disk this only clears
+    // bits, which reach the disk with the bitmap blocks on the next sync.
+    // On a lazily formatted disk, blocks right below lazyFree just move
+    // lazyFree back. Otherwise the run is linked into a chain in one go and
+    // pushed onto the free list.
+    public synchronized boolean returnRun(int start, int count) {
+        if (start < 0 || count <= 0 || start + count > totalBlocks) {
+            return false;
+        }
+        if (bitmap != null) {
+            boolean freed = true;
+            for (int i = 0; i < count; i++) {
+                freed &= returnBlock(start + i);
+            }
+            return freed;
+        }
+        // only a lazily formatted disk keeps lazyFree across a mount
+        if ((options & FORMAT_LAZY) != 0 && start + count == lazyFree) {
+            lazyFree = start;
+            frees.add(count);
+            return true;
+        }
+        byte[] link = new byte[Disk.blockSize];
+        for (int i = count - 1; i >= 0; i--) {
+            SysLib.int2bytes(i == count - 1 ? freeList : start + i + 1, link, 0);
+            cache.write(start + i, link, IOStats.FREE);
+        }
+        freeList = start;
+        frees.add(count);
+        return true;
+    }
+
+    // add the allocation counters to stats
+    public void stats(IOStats stats) {
+        stats.allocations += allocations.sum();
+        stats.frees += frees.sum();
+    }
+
+    public void resetStats() {
+        allocations.reset();
+        frees.reset();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+// ThreadOS program that times Cache.sync with 10, 100 and 1000 dirty
+// frames. The dirty blocks are picked at random all over the disk, so the
+// write-back has to put them in block order itself.
+//
+// Every block is written back with the contents it already had, so the
+// disk is left as it was.
+//
+// Usage from the ThreadOS shell: l SyncBench [rounds]
+
+import java.util.*;
+
+public class SyncBench extends Thread {
+    private static final int[] DIRTY = { 10, 100, 1000 };
+    private static final int BLOCKS = 1000;     // the ThreadOS disk
+
+    private int rounds = 20;
+
+    public SyncBench( ) {
+        this( new String[0] );
+    }
+
+    public SyncBench( String args[] ) {
+        if ( args.length > 0 )
+            rounds = Integer.parseInt( args[0] );
+    }
+
+    public void run( ) {
+        // the disk contents, with the kernel cache written back first,
+        // read once so they can be written back as is
+        SysLib.csync( );
+        byte[][] blocks = new byte[BLOCKS][Disk.blockSize];
+        for ( int i = 0; i < BLOCKS; i++ )
+            SysLib.rawread( i, blocks[i] );
+
+        SysLib.cout( "SyncBench: best of " + rounds + " rounds\n" );
+        SysLib.cout( "dirty frames  sync (us)  us per frame\n" );
+        Random random = new Random( 1 );
+        for ( int d = 0; d < DIRTY.length; d++ ) {
+            int dirty = DIRTY[d];
+            // one stripe, so all BLOCKS frames can hold a dirty block at once
+            Cache cache = new Cache( Disk.blockSize, BLOCKS, false, 1, "clock" );
+            long best = Long.MAX_VALUE;
+            for ( int r = 0; r < rounds; r++ ) {
+                // dirty a random set of blocks in random order
+                int[] order = shuffle( random );
+                for ( int i = 0; i < dirty; i++ )
+                    cache.write( order[i], blocks[order[i]] );
+                long start = System.nanoTime( );
+                cache.sync( );
+                best = Math.min( best, System.nanoTime( ) - start );
+            }
+            SysLib.cout( pad( dirty, 12 ) + pad( best / 1000, 11 ) +
+                         pad( best / 1000 / dirty, 14 ) + "\n" );
+        }
+        SysLib.exit( );
+    }
+
+    // the block numbers 0 .. BLOCKS - 1 in random order
+    private static int[] shuffle( Random random ) {
+        int[] order = new int[BLOCKS];
+        for ( int i = 0; i < BLOCKS; i++ )
+            order[i] = i;
+        for ( int i = BLOCKS - 1; i > 0; i-- ) {
+            int j = random.nextInt( i + 1 );
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        return order;
+    }
+
+    private static String pad( long n, int width ) {
+        String s = "" + n;
+        while ( s.length( ) < width )
+            s = " " + s;
+        return s;
+    }
+}
@@ -159,6 +159,18 @@ public class SysLib {
                 Kernel.FORMAT, files, null);
     }
 
+    // calls Kernel with the following parameters: 
+    /* files = # to format
+       options = SuperBlock.FORMAT_ bits, e.g. FORMAT_EXTENTS for
+                 extent-mapped files
+    */
+    public static int format(int files, int options){
+        int[] args = new int[1];
+        args[0] = options;
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE, 
+                Kernel.FORMAT, files, args);
+    }
+
     // Implemented in final project: 
     // calls Kernel with the following parameters: 
     /* fd = file descriptor 
@@ -192,6 +204,61 @@ public class SysLib {
                  Kernel.SIZE, fd, null);
     }
     
+    // makes a directory, whose parent directory must exist
+    /* path = directory to make, e.g. "/a/b"
+    */
+    public static int mkdir(String path) {
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE,
+                 Kernel.MKDIR, 0, path);
+    }
+
+    // removes a directory, which has to be empty
+    /* path = directory to remove
+    */
+    public static int rmdir(String path) {
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE,
+                 Kernel.RMDIR, 0, path);
+    }
+
+    // returns the names in a directory, or null if there is no such
+    // directory
+    /* path = directory to list
+    */
+    public static String[] readdir(String path) {
+        Vector<String> names = new Vector<String>();
+        Object[] args = { path, names };
+        if (Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE,
+                 Kernel.READDIR, 0, args) < 0) {
+            return null;
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    // returns the # physical runs the file at fd is stored in,
+    // 1 for a contiguous file
+    /* fd = file descriptor 
+    */
+    public static int fragments(int fd) {
+        return Kernel.interrupt(Kernel.INTERRUPT_SOFTWARE,
+                 Kernel.FRAGS, fd, null);
+    }
+    
+    // returns a snapshot of the cache and file-system I/O counters
+    public static IOStats stats( ) {
+        IOStats stats = new IOStats( );
+        Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                 Kernel.STATS, 0, stats );
+        return stats;
+    }
+
+    // returns a snapshot of the I/O counters and starts them over from zero
+    public static IOStats resetStats( ) {
+        IOStats stats = new IOStats( );
+        Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+                 Kernel.STATS, 1, stats );
+        return stats;
+    }
+
     public static String[] stringToArgs( String s ) {
 	StringTokenizer token = new StringTokenizer( s," " );
 	String[] progArgs = new String[ token.countTokens( ) ];
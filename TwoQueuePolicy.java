@@ -0,0 +1,123 @@
+import java.util.*;
+
+// 2Q replacement (Johnson & Shasha). Blocks seen for the first time go to
+// a small FIFO, A1in, and are evicted from there unless they are asked for
+// again after leaving it; A1out remembers the IDs of recently evicted A1in
+// blocks so that such a block is admitted straight into the main LRU, Am.
+// A single sequential scan therefore only ever cycles through A1in and
+// leaves the hot blocks in Am alone.
+//
+// A prefetched block goes in at the head of A1in like any new block, so
+// unread prefetches leave oldest first, and reading it does not move it.
+// It is only remembered in A1out once it has been read.
+
+public class TwoQueuePolicy implements EvictionPolicy {
+
+    // resident lists
+    private static final int A1IN = 0;
+    private static final int AM = 1;
+
+    // ghost lists
+    private static final int A1OUT = 0;
+    private static final int FREE = 1;
+
+    private FrameLists resident;
+    private FrameLists ghosts;
+    private int[] ghostBlock;    // block ID remembered in each ghost slot
+    private BlockIndex ghostOf;  // block ID -> ghost slot
+    private boolean[] prefetched; // frame was prefetched and not read yet
+
+    private int kin;             // A1in may grow past this only while Am is empty
+
+    public TwoQueuePolicy(int frames) {
+        int kout = Math.max(1, frames / 2);
+        kin = Math.max(1, frames / 4);
+        resident = new FrameLists(frames, 2);
+        ghosts = new FrameLists(kout, 2);
+        ghostBlock = new int[kout];
+        ghostOf = new BlockIndex(kout);
+        prefetched = new boolean[frames];
+        clear();
+    }
+
+    public void inserted(int frame, int blockId, boolean referenced) {
+        int ghost = ghostOf.get(blockId);
+        if (ghost != BlockIndex.NONE && referenced) {
+            // asked for again soon after leaving A1in: it is hot
+            forget(ghost);
+            resident.pushHead(AM, frame);
+        } else if (referenced) {
+            resident.pushHead(A1IN, frame);
+        } else {
+            resident.pushHead(A1IN, frame);
+            prefetched[frame] = true;
+        }
+    }
+
+    public void accessed(int frame) {
+        if (prefetched[frame]) {
+            // the first time it is asked for. It stays where it came in, so
+            // the read-ahead queued behind it is still evicted after it
+            prefetched[frame] = false;
+        // hits in A1in are deliberately ignored, they are likely one scan
+        } else if (resident.listOf(frame) == AM) {
+            resident.pushHead(AM, frame);
+        }
+    }
+
+    public void removed(int frame, int blockId) {
+        // a block that was never read is not remembered in A1out
+        if (prefetched[frame]) {
+            prefetched[frame] = false;
+        } else if (resident.listOf(frame) == A1IN) {
+            remember(blockId);
+        }
+        resident.remove(frame);
+    }
+
+    public int victim() {
+        if (resident.size(A1IN) > kin || resident.size(AM) == 0) {
+            return resident.tail(A1IN);
+        }
+        return resident.tail(AM);
+    }
+
+    public int victimHint() {
+        return victim();
+    }
+
+    public void clear() {
+        resident.clear();
+        Arrays.fill(prefetched, false);
+        ghosts.clear();
+        ghostOf.clear();
+        for (int i = 0; i < ghostBlock.length; i++) {
+            ghosts.pushHead(FREE, i);
+        }
+    }
+
+    public String name() {
+        return "2q";
+    }
+
+    // add blockId to A1out, pushing out its oldest entry when full
+    private void remember(int blockId) {
+        int ghost = ghostOf.get(blockId);
+        if (ghost == BlockIndex.NONE) {
+            if (ghosts.size(FREE) > 0) {
+                ghost = ghosts.head(FREE);
+            } else {
+                ghost = ghosts.tail(A1OUT);
+                ghostOf.remove(ghostBlock[ghost]);
+            }
+            ghostBlock[ghost] = blockId;
+            ghostOf.put(blockId, ghost);
+        }
+        ghosts.pushHead(A1OUT, ghost);
+    }
+
+    private void forget(int ghost) {
+        ghostOf.remove(ghostBlock[ghost]);
+        ghosts.pushHead(FREE, ghost);
+    }
+}